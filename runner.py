@@ -5,13 +5,13 @@ ts = [5,25,100,500]
 tls = [1000,2500,10000,50000]
 dts = [0.004, 0.015]
 seed = 1234 # this is likely to be the only change for the tournament
-for i in xrange(1000):
-	for t,tl in zip(ts, tls):
-		for dt in dts:
-			calledthing = ["java", "sail.sim.Simulator", "-g", "6"]
-			calledthing.extend(groups)
-			calledthing.extend(["-t", str(t),"-tl",str(tl),"-dt",str(dt), "-S", str(seed),"--tournament"])
-			call(calledthing)
-			seed += 1
+games = 1000
+# all in one JVM, each configuration plays games seeds of its own, the 8000 from seed on
+calledthing = ["java", "sail.sim.TournamentRunner", "-g", str(len(groups))]
+calledthing.extend(groups)
+calledthing.extend(["-R", str(seed), str(games), "--config-seed-offset", str(games)])
+for t,tl in zip(ts, tls):
+	for dt in dts:
+		calledthing.extend(["-c", "%d:%s:%d" % (t, dt, tl)])
+call(calledthing)
 sys.exit()
-
@@ -1,7 +1,11 @@
 package sail.g1;
 
+import sail.sim.HeadingSolver;
 import sail.sim.Point;
+import sail.sim.PointMath;
 import sail.sim.Simulator;
+import sail.sim.SpeedModel;
+import sail.sim.Visits;
 import java.util.concurrent.TimeUnit;
 import java.util.*;
 
@@ -10,7 +14,7 @@ public class Player extends sail.sim.Player {
 
     int t;
     List<Point> targets;
-    Map<Integer, Set<Integer>> visited_set;
+    Visits visits;
     int[] targetScore;
     double[] estimatedTargetScores;
 
@@ -19,6 +23,9 @@ public class Player extends sail.sim.Player {
     int id;
     Point wind_direction;
     Point currentLocation;
+    // heading and expected position in computeNextDirection
+    private final double[] scratch = new double[4];
+    SpeedModel speedModel;
     Point initial;
 
     int curIndex;
@@ -30,8 +37,8 @@ public class Player extends sail.sim.Player {
 
     List<Point> groupLocations;
 
-    double BESTANGLE = 0.511337; 
-    double BESTANGLE_UPWIND = 0.68867265359;
+    HeadingSolver headingSolver;
+    HeadingSolver.Plan plan = new HeadingSolver.Plan();
     Point bestDirection1;
     Point bestDirection2;
     Point bestDirection1_upwind;
@@ -55,6 +62,7 @@ public class Player extends sail.sim.Player {
         gen = new Random(seed);
         initial = initStartPoint(wind_direction, 1.0, 5.0, 5.0);
         this.wind_direction = wind_direction;
+        this.speedModel = new SpeedModel(wind_direction);
         double speed = Simulator.getSpeed(initial, wind_direction);
         return initial;
     }
@@ -107,21 +115,18 @@ public class Player extends sail.sim.Player {
     }
 
     private void initializeBestSpeedVector() {
-        double windAngle = Math.atan2(this.wind_direction.y, this.wind_direction.x);
-        
-        double speed = getSpeedRelativeToWind(BESTANGLE);
-        this.bestDirection1 = new Point(speed * Math.cos(windAngle + BESTANGLE), speed * Math.sin(windAngle + BESTANGLE));
-        this.bestDirection2 = new Point(speed * Math.cos(windAngle - BESTANGLE), speed * Math.sin(windAngle - BESTANGLE));
-        
-        speed = getSpeedRelativeToWind(Math.PI + BESTANGLE_UPWIND);
-        this.bestDirection1_upwind = new Point(speed * Math.cos(windAngle + Math.PI + BESTANGLE_UPWIND), speed * Math.sin(windAngle + Math.PI + BESTANGLE_UPWIND));
-        this.bestDirection2_upwind = new Point(speed * Math.cos(windAngle + Math.PI - BESTANGLE_UPWIND), speed * Math.sin(windAngle + Math.PI - BESTANGLE_UPWIND));
+        this.headingSolver = new HeadingSolver(this.wind_direction);
+        this.bestDirection1 = tackVelocity(false, true);
+        this.bestDirection2 = tackVelocity(false, false);
+        this.bestDirection1_upwind = tackVelocity(true, true);
+        this.bestDirection2_upwind = tackVelocity(true, false);
     }
 
-    private double getSpeedRelativeToWind(double angle) {
-        double x = 2.5 * Math.cos(angle + Math.PI) - 0.5;
-        double y = 5 * Math.sin(angle + Math.PI);
-        return Math.sqrt((x)*(x) + (y)*(y));
+    private Point tackVelocity(boolean upwind, boolean left) {
+        double[] heading = new double[2];
+        headingSolver.tack(upwind, left, heading, 0);
+        double speed = headingSolver.tackSpeed(upwind);
+        return new Point(speed * heading[0], speed * heading[1]);
     }
 
     @Override
@@ -145,7 +150,7 @@ public class Player extends sail.sim.Player {
                 }
             } else {
                 for(int j=0; j<predictList.size(); j++) {
-                    if (visited_set != null && !visited_set.get(this.id).contains(predictList.get(j))) {
+                    if (visits != null) {
                         double oppTime = getTimeToTravel(predictList.get(j), group_locations.get(i));
                         double ourTime = getTimeToTravel(predictList.get(j), group_locations.get(id));
                         if (ourTime < oppTime) {
@@ -175,7 +180,6 @@ public class Player extends sail.sim.Player {
             y = current.y;
             x = current.x;
             for (Point a : targets){
-                if (visited_set.get(playerId).contains(a)) continue;
                 double y_delta = a.y-y;
                 double x_delta = a.x-x;
                 double delta = y_delta/x_delta;
@@ -198,7 +202,7 @@ public class Player extends sail.sim.Player {
     public Point nearestNeighborMove(List<Point> group_locations, int id, double dt, long time_remaining_ms) {
         turn_num++;
         boolean justHitATarget = false;
-        while(curIndex < curSeqenceLength && visited_set != null && nextTargetIndexes != null && nextTargetIndexes.size()>0 && visited_set.get(id).contains(nextTargetIndexes.get(curIndex))) {
+        while(curIndex < curSeqenceLength && visits != null && nextTargetIndexes != null && nextTargetIndexes.size()>0 && nextTargetIndexes.get(curIndex) < targets.size() && visits.isVisited(id, nextTargetIndexes.get(curIndex))) {
             curIndex++;
             justHitATarget = true;
         }
@@ -231,19 +235,12 @@ public class Player extends sail.sim.Player {
                 Point newTarget = new Point(x,y);
                 Point direction = Point.getDirection(this.currentLocation, newTarget);
 
-                double theta = Point.angleBetweenVectors(direction, wind_direction);
-    
-                if (theta <= BESTANGLE ||
-                    theta >= -BESTANGLE + 2*Math.PI) {
-                    timeOnBestDirection1 = (direction.y - bestDirection2.y/bestDirection2.x * direction.x)/(bestDirection1.y - bestDirection2.y/bestDirection2.x * bestDirection1.x);
-                    timeOnBestDirection2 = (direction.y - bestDirection1.y/bestDirection1.x * direction.x)/(bestDirection2.y - bestDirection1.y/bestDirection1.x * bestDirection2.x);
-                    this.upwind = false;
-                } else if (theta >= Math.PI - BESTANGLE_UPWIND &&
-                    theta <= Math.PI + BESTANGLE_UPWIND) {
-                    timeOnBestDirection1 = (direction.y - bestDirection2_upwind.y/bestDirection2_upwind.x * direction.x)/(bestDirection1_upwind.y - bestDirection2_upwind.y/bestDirection2_upwind.x * bestDirection1_upwind.x);
-                    timeOnBestDirection2 = (direction.y - bestDirection1_upwind.y/bestDirection1_upwind.x * direction.x)/(bestDirection2_upwind.y - bestDirection1_upwind.y/bestDirection1_upwind.x * bestDirection2_upwind.x);
-                    this.upwind = true;
-                } 
+                // outside the tacking cones the last split is kept
+                if (headingSolver.plan(direction.x, direction.y, plan)) {
+                    timeOnBestDirection1 = plan.time1;
+                    timeOnBestDirection2 = plan.time2;
+                    this.upwind = plan.upwind;
+                }
                 if (upwind) {
                     return bestDirection1_upwind;
                 }
@@ -300,14 +297,6 @@ public class Player extends sail.sim.Player {
     }
 
     private Point computeNextDirection(Point target, double dt) {
-        Point directionToTarget = Point.getDirection(this.currentLocation, target);
-        Point perpendicularLeftDirection = Point.rotateCounterClockwise(directionToTarget, Math.PI/2.0);
-        Point perpendicularRightDirection = Point.rotateCounterClockwise(directionToTarget, -Math.PI/2.0);
-        return findBestDirection(perpendicularLeftDirection, perpendicularRightDirection, target, 100, dt);
-    }
-
-    private Point findBestDirection(Point leftDirection, Point rightDirection, Point target, int numSteps,
-                                    double dt) {
         // First, check if the target is reachable in one time step from our current position.
         double currentDistanceToTarget = Point.getDistance(this.currentLocation, target);
         Point directionToTarget = Point.getDirection(this.currentLocation, target);
@@ -318,42 +307,29 @@ public class Player extends sail.sim.Player {
             return directionToTarget;
         }
 
-        // If that is not the case, choose the direction that will get us to a point where the time to reach
-        // the target is minimal, if going directly to the target.
-        double minTimeToTarget = Double.POSITIVE_INFINITY;
-        Point minTimeToTargetDirection = null;
-
-        double totalRadians = Point.angleBetweenVectors(leftDirection, rightDirection);
-        double radiansStep = totalRadians / (double) numSteps;
-        for (double i = 0.0; i < totalRadians; i+=radiansStep) {
-            Point direction = Point.rotateCounterClockwise(rightDirection, i);
-            Point expectedPosition = computeExpectedPosition(direction, dt);
-            Point nextDirection = Point.getDirection(expectedPosition, target);
-            double distance = Point.getDistance(expectedPosition, target);
-            double speed = Simulator.getSpeed(nextDirection, this.wind_direction);
-            double timeToTarget = distance / speed;
-
-            if (timeToTarget < minTimeToTarget) {
-                minTimeToTargetDirection = direction;
-                minTimeToTarget = timeToTarget;
-            }
+        // If that is not the case, take the fastest heading there, a tack when the target is about
+        // straight down or up wind. Straight at it if the tack would take us off the board.
+        headingSolver.heading(directionToTarget.x, directionToTarget.y, scratch, 0);
+        computeExpectedPosition(scratch[0], scratch[1], dt, scratch, 2);
+        if (scratch[2] == this.currentLocation.x && scratch[3] == this.currentLocation.y) {
+            return directionToTarget;
         }
-
-        return minTimeToTargetDirection;
+        return new Point(scratch[0], scratch[1]);
     }
 
-    private Point computeExpectedPosition(Point moveDirection, double dt) {
-        Point unitMoveDirection = Point.getUnitVector(moveDirection);
-        double speed = Simulator.getSpeed(unitMoveDirection, this.wind_direction);
-        Point distanceMoved = new Point(
-                unitMoveDirection.x * speed * dt,
-                unitMoveDirection.y * speed * dt
-        );
-        Point nextLocation = Point.sum(this.currentLocation, distanceMoved);
-        if (nextLocation.x < 0 || nextLocation.y > 10 || nextLocation.y < 0 || nextLocation.x > 10) {
-            return this.currentLocation;
-        }
-        return nextLocation;
+    // where moving along (dx, dy) for a time step takes us, written to out[at], out[at + 1]
+    private void computeExpectedPosition(double dx, double dy, double dt, double[] out, int at) {
+        PointMath.unit(dx, dy, out, at);
+        double ux = out[at], uy = out[at + 1];
+        double speed = speedModel.exactSpeed(ux, uy);
+        double x = this.currentLocation.x + ux * speed * dt;
+        double y = this.currentLocation.y + uy * speed * dt;
+        if (x < 0 || y > 10 || y < 0 || x > 10) {
+            x = this.currentLocation.x;
+            y = this.currentLocation.y;
+        }
+        out[at] = x;
+        out[at + 1] = y;
     }
 
     public List<Integer> selectKBest(Point curLoc) {
@@ -379,13 +355,13 @@ public class Player extends sail.sim.Player {
         int targetIndex = -1;
         List<Integer> p = new ArrayList<Integer>();
         List<Integer> maxP = new ArrayList<Integer>();
-        if(visited_set != null && visited_set.get(this.id).size() > targets.size() - K) {
+        if(visits != null && visits.visitedCount(this.id) > targets.size() - K) {
             maxP.add(findNearestNeighbor(curLoc));
             return maxP;
         }
 
         for(int i = 0; i < targets.size(); i++) {
-            if(visited_set != null && visited_set.get(this.id).contains(i) || i == skip) continue;
+            if(visits != null && visits.isVisited(this.id, i) || i == skip) continue;
 
             p = findNearestNeighbors(i, L);
 
@@ -410,7 +386,7 @@ public class Player extends sail.sim.Player {
         boolean cached = true;
         if(bestPathFromTarget.containsKey(targetIndex)) {
             for(int r : bestPathFromTarget.get(targetIndex)) {
-                if(visited_set != null && visited_set.get(this.id).contains(r)) {
+                if(visits != null && r < targets.size() && visits.isVisited(this.id, r)) {
                     cached = false;
                 }
             }
@@ -442,7 +418,7 @@ public class Player extends sail.sim.Player {
         double maxScore = -1;
         Point targetLoc = targets.get(targetIndex);
         for(int i = 0; i < targets.size(); i++) {
-            if(excluded.contains(i) || visited_set != null && visited_set.get(this.id).contains(i)) continue;
+            if(excluded.contains(i) || visits != null && visits.isVisited(this.id, i)) continue;
 
             // Compute time to get to target
             double score = getTargetScore(targetLoc, i);
@@ -467,7 +443,7 @@ public class Player extends sail.sim.Player {
         int targetIndex = -1;
         double maxScore = -1;
         for(int i = 0; i < targets.size(); i++) {
-            if(visited_set != null && visited_set.get(this.id).contains(i)) continue;
+            if(visits != null && visits.isVisited(this.id, i)) continue;
 
             // Compute time to get to target
             double score = getTargetScore(curLoc, i);
@@ -515,21 +491,15 @@ public class Player extends sail.sim.Player {
     }
 
     /**
-    * visited_set.get(i) is a set of targets that the ith player has visited.
+    * visits.isVisited(i, j) tells if the ith player has visited target j.
     */
     @Override
-    public void onMoveFinished(List<Point> group_locations, Map<Integer, Set<Integer>> visited_set) {
+    public void onMoveFinished(List<Point> group_locations, Visits visits) {
         this.groupLocations = group_locations;
-        this.visited_set = visited_set;
-        for(int i = 0; i < targetScore.length; i++) {
-            targetScore[i] = group_locations.size();
-        }
-
-        for(int k : visited_set.keySet()) {
-            Set<Integer> visitedTargets = visited_set.get(k);
-            for(int l : visitedTargets) {
-                targetScore[l]--;
-            }
+        this.visits = visits;
+        // only the visits of this turn change the scores
+        for(int k = 0; k < visits.turnVisitCount(); k++) {
+            targetScore[visits.turnVisitTarget(k)]--;
         }
     }
 
@@ -538,7 +508,7 @@ public class Player extends sail.sim.Player {
             double ourTime = getTimeToTravel(groupLocations.get(this.id), targets.get(targetIndex));
             double oppTime = getTimeToTravel(groupLocations.get(pid), targets.get(targetIndex));
             if(oppTime < ourTime) {
-                if(this.visited_set == null || !this.visited_set.get(pid).contains(targetIndex)) {
+                if(this.visits == null || !this.visits.isVisited(pid, targetIndex)) {
                     estimatedTargetScores[targetIndex] -= (ourTime - oppTime)/ourTime;
                 }
             }
@@ -550,7 +520,7 @@ public class Player extends sail.sim.Player {
         Point target = this.targets.get(targetIndex);
         for (int pid = 0; pid < this.groupLocations.size(); pid++) {
             if (pid == this.id) continue; // Skip our own.
-            if (!this.visited_set.get(pid).contains(targetIndex)) {
+            if (!this.visits.isVisited(pid, targetIndex)) {
                 // This means that this player hasn't visited this target yet, so
                 // compute her time to target.
                 Point playerLoc = groupLocations.get(pid);
@@ -1,23 +1,29 @@
 package sail.g2;
 
+import sail.sim.HeadingSolver;
 import sail.sim.Point;
+import sail.sim.TravelTimes;
 import sail.sim.Simulator;
+import sail.sim.TravelTimeMatrix;
+import sail.sim.Visits;
 import java.util.concurrent.TimeUnit;
 import java.util.*;
 
 public class Player extends sail.sim.Player {
     List<Point> targets;
-    Map<Integer, Set<Integer>> visited_set;
+    Visits visits;
     Random gen;
     int id;
     Point initial;
     Point wind_direction;
+    HeadingSolver headingSolver;
+    TravelTimes travelTimes;
     List<Integer> target_id_seq;
     int num_visited;
     Point current_target;
     int num_players;
     boolean second_stage = false;
-    Map<Integer, List<Double>> target_dist_map;
+    TravelTimeMatrix target_times;
     Map<Integer, Integer> targets_visited;
     ArrayList<Point> memory;
 
@@ -62,6 +68,8 @@ public class Player extends sail.sim.Player {
 
         //System.out.println( "start point "+initial.x + " " + initial.y);
         this.wind_direction = wind_direction;
+        this.headingSolver = new HeadingSolver(wind_direction);
+        this.travelTimes = new TravelTimes(headingSolver);
         return initial;
 
     }
@@ -70,7 +78,7 @@ public class Player extends sail.sim.Player {
     public void init(List<Point> group_locations, List<Point> targets, int id) {
         //this.targets = new ArrayList<Point>();
         this.targets = targets;
-        this.target_dist_map = new HashMap<Integer, List<Double>>();
+        this.target_times = travelTimeMatrix();
         this.targets_visited = new HashMap<Integer, Integer>();
         this.memory = new ArrayList<Point>();
 
@@ -85,19 +93,8 @@ public class Player extends sail.sim.Player {
         for(int i = 0; i < this.targets.size(); i++){
                 //compute time to target
             this.targets_visited.put(i, 0);
-            List<Double> tmp_time = new ArrayList<Double>();
-            for(int j = 0; j < this.targets.size(); j++){
-                double dist2 = Point.getDistance(this.targets.get(i), this.targets.get(j));
-                double speed2 = Simulator.getSpeed(Point.getDirection(this.targets.get(i), this.targets.get(j)), wind_direction);
-                double time2 = dist2/speed2;
-                tmp_time.add(time2);
-            }
-            //System.out.println(tmp_time);
-            this.target_dist_map.put(i, tmp_time);
 
-            double dist = Point.getDistance(this.initial, this.targets.get(i));
-            double speed = Simulator.getSpeed(Point.getDirection(this.initial, targets.get(i)), wind_direction);
-            double time = dist/speed;
+            double time = travelTimes.time(this.initial, this.targets.get(i));
 
             //get shortest time
             if(tempTime > time || tempTime == -1) {
@@ -129,7 +126,7 @@ public class Player extends sail.sim.Player {
           memory.add(group_locations.get(i));
         }
 
-        if(visited_set != null && visited_set.get(id).size() == targets.size()) {
+        if(visits != null && visits.visitedCount(id) == targets.size()) {
             //this is if finished visiting all targets
             this.current_target =  this.initial;
         } else{
@@ -141,70 +138,46 @@ public class Player extends sail.sim.Player {
             //         max_visit = visited_set.get(i).size();
             //     }
             // }
-            if(visited_set != null && this.num_visited < visited_set.get(id).size()){
+            if(visits != null && this.num_visited < visits.visitedCount(id)){
                 // boolean change = 0;
                 // while(this.current_tar.size() != 0){
                 //     if(this.current_target.get(0))
                 // }
-                this.current_target = computeTarget(group_locations,visited_set);
-                this.num_visited = visited_set.get(id).size();
+                this.current_target = computeTarget(group_locations,visits);
+                this.num_visited = visits.visitedCount(id);
                 //System.out.println("g2 has visited: " + visited_set.get(id).size() + " " + this.current_target.x + " " + this.current_target.y);
             }
 
 
         }
-            double max_proj = 0;
             Point target = Point.getDirection(
                 group_locations.get(id),
                 this.current_target);
-            //System.out.println(Point.angleBetweenVectors(target, wind_direction));
-            Point result = target;
-            //set temp time for comparing
-            double tempTime = -1;
-            //optimize the angle to the target
-            //tuning degrees (we tried 90, 30)
-            // for(int i = 0; i < this.targets.size(); i++){
-            //     if(!visited_set.get(id).contains(i) && Point.getDistance(group_locations.get(id), this.targets.get(i)) <= dt*Point.getSpeed(target,wind_direction))){
-            //         current_tar.add(0,this.targets.get(i));
-            //         this.current_target = this.targets.get(i);
-            //     }
-            // }
-            if(Point.angleBetweenVectors(target, wind_direction) < Math.PI / 6 || Point.angleBetweenVectors(target, wind_direction) > Math.PI*11/6  ||
-             (Point.angleBetweenVectors(target, wind_direction) > Math.PI*5/6 && Point.angleBetweenVectors(target, wind_direction) < Math.PI*7/6 )){
-            for(int i = -90; i <= 90; i+=2){
-                double tmp_angle = i * Math.PI / 180;
-                Point tmp_direction = angleToDirection(target, tmp_angle);
-                tmp_direction = Point.getUnitVector(tmp_direction);
-                double speed = getSpeed(tmp_direction,wind_direction);
-                Point distanceMoved = new Point(
-                    tmp_direction.x * speed * dt,
-                    tmp_direction.y * speed * dt
-                );
-                Point nextLocation = Point.sum(group_locations.get(id), distanceMoved);
-                if(nextLocation.x >= 0 && nextLocation.y <= 10 &&
-            nextLocation.y >= 0 && nextLocation.x <= 10) {
-
-                  //optimize base on time
-                    double dist = Point.getDistance(nextLocation, this.current_target);
-                    double speed2 = Simulator.getSpeed(Point.getDirection(nextLocation, this.current_target), wind_direction);
-                    double time = dist/speed2;
-                    if (tempTime > time || tempTime ==-1) {
-                      tempTime = time;
-                      result = tmp_direction;
-                    }
-                }
+            //within a step of the target go straight, else the fastest heading to it,
+            //one of the tacks if it is about straight down or up wind
+            double speed = Simulator.getSpeed(target, wind_direction);
+            if(Point.getNorm(target) <= speed * dt) {
+                return target;
+            }
+            double[] heading = new double[2];
+            headingSolver.heading(target.x, target.y, heading, 0);
+            Point result = new Point(heading[0], heading[1]);
+            speed = Simulator.getSpeed(result, wind_direction);
+            Point nextLocation = Point.sum(group_locations.get(id), Point.multiply(result, speed * dt));
+            if(nextLocation.x < 0 || nextLocation.y > 10 ||
+                nextLocation.y < 0 || nextLocation.x > 10) {
+                //the tack would take us off the board
+                return target;
             }
-        }
-            //System.out.println("target: " + target.x + " " + target.y + " our choice: " + result.x + " " + result.y);
             return result;
     }
 
     /**
-    * visited_set.get(i) is a set of targets that the ith player has visited.
+    * visits.isVisited(i, j) tells if the ith player has visited target j.
     */
     @Override
-    public void onMoveFinished(List<Point> group_locations, Map<Integer, Set<Integer>> visited_set) {
-        this.visited_set = visited_set;
+    public void onMoveFinished(List<Point> group_locations, Visits visits) {
+        this.visits = visits;
     }
 
 
@@ -229,26 +202,18 @@ public class Player extends sail.sim.Player {
         return new Point(start.x*Math.cos(angle) - start.y*Math.sin(angle), start.x*Math.sin(angle) + start.y*Math.cos(angle));
     }
 
-    public Point computeTarget(List<Point> group_locations, Map<Integer, Set<Integer>> visited_set){
+    public Point computeTarget(List<Point> group_locations, Visits visits){
         int result = -1;
         Point loc = group_locations.get(id);
         double d = -1;
         double tempTime = -1;
         for(int i = 0; i < this.targets.size(); i++){
-                int count = 0;
-                for(int k = 0 ; k < this.num_players; k++){
-                    if(visited_set.get(k).contains(i)){
-                        count+=1;
-                    }
-                }
-                this.targets_visited.put(i, count);
+                this.targets_visited.put(i, visits.visitCount(i));
         }
         for(int i = 0; i < this.targets.size(); i++){
-             if(!visited_set.get(id).contains(i)){
+             if(!visits.isVisited(id, i)){
                 //compute time to target
-                double dist = Point.getDistance(loc, this.targets.get(i));
-                double speed = Simulator.getSpeed(Point.getDirection(loc, targets.get(i)), wind_direction);
-                double time = (dist)/speed;
+                double time = travelTimes.time(loc, this.targets.get(i));
 
                 if(second_stage ==false){
                     //count how many other players are around the target
@@ -256,7 +221,7 @@ public class Player extends sail.sim.Player {
                     //System.out.println("This is our ID size: " + visited_set.get(id).size() + " " + this.targets.size());
 
                     //switching to nearest neighbor after .8 of our own traversal
-                    if(visited_set.get(id).size() >= 0.8*this.targets.size()) {
+                    if(visits.visitedCount(id) >= 0.8*this.targets.size()) {
                       System.out.println("WE JUST CHANGED STRATEGY");
                       second_stage = true;
                     }
@@ -315,14 +280,10 @@ public class Player extends sail.sim.Player {
                       }
                     } else {
                       for(int j = 0; j < num_players; j++){
-                          if(j != id && !visited_set.get(j).contains(i)){
-                              double currDist = Point.getDistance(group_locations.get(j), this.targets.get(i));
-                              double currSpeed = Simulator.getSpeed(Point.getDirection(group_locations.get(j), targets.get(i)), wind_direction);
-                              double currTime = (currDist)/currSpeed ;
+                          if(j != id && !visits.isVisited(j, i)){
+                              double currTime = travelTimes.time(group_locations.get(j), this.targets.get(i));
 
-                              double prevDist = Point.getDistance(this.memory.get(j), this.targets.get(i));
-                              double prevSpeed = Simulator.getSpeed(Point.getDirection(this.memory.get(j), targets.get(i)), wind_direction);
-                              double prevTime = (prevDist)/prevSpeed ;
+                              double prevTime = travelTimes.time(this.memory.get(j), this.targets.get(i));
 
                               // double time1 = this.target_dist_map.get(i).get(j);
                               if(currTime < time && currTime<prevTime) count1+=1;
@@ -339,20 +300,19 @@ public class Player extends sail.sim.Player {
                       double next_step_time = 0;
                       int next_step_score = 0;
                       while(tmp_t.size() < 1){
-                        List<Double> next_time = this.target_dist_map.get(current_id);
                         int next_ind = -1;
                         double next_t = -1;
 
-                        for(int p = 0; p < next_time.size(); p++){
-                            if(!visited_set.get(id).contains(p) && p!=i){
-                                if(((num_players-this.targets_visited.get(p))/next_time.get(p) < next_t && !tmp_t.contains(p)) || next_t == -1){
-                                    next_t = (num_players-this.targets_visited.get(p))/next_time.get(p);
+                        for(int p = 0; p < this.targets.size(); p++){
+                            if(!visits.isVisited(id, p) && p!=i){
+                                if(((num_players-this.targets_visited.get(p))/target_times.time(current_id, p) < next_t && !tmp_t.contains(p)) || next_t == -1){
+                                    next_t = (num_players-this.targets_visited.get(p))/target_times.time(current_id, p);
                                     next_ind = p;
                                 }
                             }
                         }
                         if(next_ind != -1){
-                          next_step_time += next_time.get(next_ind);
+                          next_step_time += target_times.time(current_id, next_ind);
                           next_step_score += (num_players-this.targets_visited.get(next_ind));
                         }
                         tmp_t.add(next_ind);
@@ -390,10 +350,8 @@ public class Player extends sail.sim.Player {
               result = -1;
               //get nearest neighbor when we switch strat
               for (i=0; i<this.targets.size(); i++) {
-                if (!visited_set.get(id).contains(i)) {
-                  double currDist = Point.getDistance(group_locations.get(id), this.targets.get(i));
-                  double currSpeed = Simulator.getSpeed(Point.getDirection(group_locations.get(id), targets.get(i)), wind_direction);
-                  double currTime = (currDist)/currSpeed ;
+                if (!visits.isVisited(id, i)) {
+                  double currTime = travelTimes.time(group_locations.get(id), this.targets.get(i));
 
                   if (minTime > currTime || minTime == -1) {
                     result = i;
@@ -2,6 +2,7 @@ package sail.g3;
 
 import sail.sim.Point;
 import sail.sim.Simulator;
+import sail.sim.TravelTimeMatrix;
 import java.util.concurrent.TimeUnit;
 import java.util.*;
 
@@ -29,25 +30,29 @@ public class Player extends sail.sim.Player {
 
     public void calculateNearestNeighbors() {
         final int K = 5;
+        final TravelTimeMatrix times = travelTimeMatrix();
         for (int i = 0; i < this.targets.size(); i++) {
+            final int from = i;
             Point target = targets.get(i);
-            PriorityQueue<Point> neighbors = new PriorityQueue<Point>(5, new Comparator<Point>() {
+            PriorityQueue<Integer> neighbors = new PriorityQueue<Integer>(5, new Comparator<Integer>() {
                 @Override
-                public int compare(Point o1, Point o2) {
-                    return new Double(approximateTimeToTarget(target, o2)).compareTo(approximateTimeToTarget(target, o1));
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(times.time(from, o2), times.time(from, o1));
                 }
             });
             for (int j = 0; j < this.targets.size(); j++) {
                 if (i == j) {
                     continue;
                 }
-                Point neighbor = targets.get(j);
-                neighbors.add(neighbor);
+                neighbors.add(j);
                 if (neighbors.size() > K) {
                     neighbors.poll();
                 }
             }
-            List<Point> neighborsList = new ArrayList<Point>(neighbors);
+            List<Point> neighborsList = new ArrayList<Point>();
+            for (int j : neighbors) {
+                neighborsList.add(targets.get(j));
+            }
             this.nnMap.put(target, neighborsList);
         }
     }
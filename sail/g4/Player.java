@@ -2,6 +2,7 @@ package sail.g4;
 
 import sail.sim.Point;
 import sail.sim.Simulator;
+import sail.sim.Visits;
 import java.util.concurrent.TimeUnit;
 import java.util.*;
 
@@ -9,7 +10,7 @@ public class Player extends sail.sim.Player {
     
     public final double WINDSPEED = 50.0;
     List<Point> targets;
-    Map<Integer, Set<Integer>> visited_set;
+    Visits visits;
     Random gen;
     int id;
     Point initial;
@@ -114,12 +115,12 @@ public class Player extends sail.sim.Player {
         ArrayList<Integer> availableTargetIndices = new ArrayList<Integer>();
         
 
-        if(visited_set != null && visited_set.get(id).size() == targets.size()) {
+        if(visits != null && visits.visitedCount(id) == targets.size()) {
             goalLoc = initial;
         } else {
             
             for(int i = 0; i < targets.size(); i++) {
-                if (visited_set == null || !visited_set.get(id).contains(i)) {
+                if (visits == null || !visits.isVisited(id, i)) {
                     availableTargetIndices.add(i);
                 }
             }
@@ -128,14 +129,14 @@ public class Player extends sail.sim.Player {
                 case K_STEPS:
 
                     if(nextKpoints.size() == 0) {
-                        nextKpoints = sHelper.getkOptimalTargets(availableTargetIndices, currentLoc, group_locations, visited_set, this.id, k);
+                        nextKpoints = sHelper.getkOptimalTargets(availableTargetIndices, currentLoc, group_locations, visits, this.id, k);
                     }
                     goalLoc = nextKpoints.get(0);
                     break;
 
                 case ONE_STEP:
 
-                    int indexNextTarget = sHelper.getHeuristicDistance(availableTargetIndices, currentLoc, group_locations, visited_set, this.id).targetIndex;
+                    int indexNextTarget = sHelper.getHeuristicDistance(availableTargetIndices, currentLoc, group_locations, visits, this.id).targetIndex;
                     goalLoc = targets.get(indexNextTarget);
                     break;
             }
@@ -150,20 +151,20 @@ public class Player extends sail.sim.Player {
     }
 
     /**
-    * visited_set.get(i) is a set of targets that the ith player has visited.
+    * visits.isVisited(i, j) tells if the ith player has visited target j.
     */
     @Override
-    public void onMoveFinished(List<Point> group_locations, Map<Integer, Set<Integer>> visited_set) {
+    public void onMoveFinished(List<Point> group_locations, Visits visits) {
 
         switch(modeMode)   {
             case K_STEPS:
-                if(this.visited_set != null && this.visited_set.get(id).size() > pointsVisited) {
+                if(this.visits != null && this.visits.visitedCount(id) > pointsVisited) {
                     pointsVisited++;
                     nextKpoints.remove(0);
                 }
                 break;
         }
 
-        this.visited_set = visited_set;
+        this.visits = visits;
     }
 }
@@ -1,7 +1,9 @@
 package sail.g4;
 
+import sail.sim.HeadingSolver;
 import sail.sim.Point;
-import sail.sim.Simulator;
+import sail.sim.TravelTimes;
+import sail.sim.Visits;
 import java.util.*;
 
 
@@ -22,6 +24,8 @@ public class TargetStats {
     Point initial;
     Point wind_direction;
     double wind_angle;
+    HeadingSolver headingSolver;
+    TravelTimes travelTimes;
 
     public SailingHelper(List<Point> targets, int id, Point initial, Point wind_direction, double wind_angle)	{
     	this.targets = targets;
@@ -29,6 +33,8 @@ public class TargetStats {
     	this.initial = initial;
     	this.wind_direction = wind_direction;
     	this.wind_angle = wind_angle;
+    	this.headingSolver = new HeadingSolver(wind_direction);
+    	this.travelTimes = new TravelTimes(headingSolver);
     }
     
     public double squared(double x) {
@@ -51,18 +57,6 @@ public class TargetStats {
         return angle;
     }
 
-    public double utilFunction(double phi, double theta) {
-        // you need to go towards a point in the phi direction from where you are
-        // this computes a utility of going in a direction theta
-        // we will be maximizing this function using gradient ascent
-        return Math.cos(phi - theta) * Math.sqrt(6.5 - 2.5*Math.cos(theta) + 18.75*squared(Math.sin(theta)));
-    }
-
-    public double dUtildTheta(double phi, double theta) {
-        double small = .00000001;
-        return (utilFunction(phi, theta+small) - utilFunction(phi, theta))/small;
-    }
-
     public Point getUnitVector(double angle) {
         return new Point(Math.cos(angle), Math.sin(angle));
     }
@@ -87,16 +81,11 @@ public class TargetStats {
         return false;
     }
 
+    // the heading that gets us to p2 soonest, one of the tacks when p2 is about straight down or up wind
     public Point getBestAbsoluteDirection(Point p1, Point p2) {
-        double xDiff = p2.x - p1.x;
-        double yDiff = p2.y - p1.y;
-        return getUnitVector(getBestTheta(Math.atan2(yDiff, xDiff)));
-    }
-
-    public double getBestAbsoluteAngle(Point p1, Point p2) {
-        double xDiff = p2.x - p1.x;
-        double yDiff = p2.y - p1.y;
-        return getBestTheta(Math.atan2(yDiff, xDiff));
+        double[] heading = new double[2];
+        headingSolver.heading(p2.x - p1.x, p2.y - p1.y, heading, 0);
+        return new Point(heading[0], heading[1]);
     }
 
     public double getAbsoluteAngle(Point p1, Point p2) {
@@ -105,47 +94,6 @@ public class TargetStats {
         return Math.atan2(yDiff, xDiff);
     }
 
-    public double getBestTheta(double phi_abs) {
-
-        // find phi, which is the angle we seek to go in, but relative to the wind
-        // will convert back at end of function
-        // relative_angle = absolute_angle - wind_angle + PI
-        double phi = phi_abs - wind_angle + Math.PI;
-        // given a phi constant, find the theta that maximizes utilFunction
-        int numIterations = 100;
-        if (phi == 0.0) return .689; // special case
-        double firstTry;
-        // use gradient ascent
-        double eta = .01; // learning rate
-        double currentTheta = 2.0;
-        double newTheta;
-        for (int i = 0; i < numIterations; i++) {
-            newTheta = bringIntoRange(currentTheta + eta*dUtildTheta(phi, currentTheta));
-            if (utilFunction(phi, newTheta) > utilFunction(phi, currentTheta)) {
-                currentTheta = newTheta;
-            } else {
-                eta *= .99;
-            }
-        }
-        firstTry = currentTheta;
-
-        double secondTry;
-        eta = .01; // learning rate
-        currentTheta = 4.0;
-        for (int i = 0; i < numIterations; i++) {
-            newTheta = bringIntoRange(currentTheta + eta*dUtildTheta(phi, currentTheta));
-            if (utilFunction(phi, newTheta) > utilFunction(phi, currentTheta)) {
-                currentTheta = newTheta;
-            } else {
-                eta *= .99;
-            }
-        }
-        secondTry = currentTheta;
-        // when returning, convert back to nonrelative angle
-        if (utilFunction(phi, firstTry) > utilFunction(phi, secondTry)) return firstTry + wind_angle - Math.PI;
-        return secondTry + wind_angle - Math.PI;
-    }
-
     public double getSpeed(double theta) {
         // takes in the relative angle you're going at
         return Math.sqrt(6.5 - 2.5*Math.cos(theta) + 18.75*squared(Math.sin(theta))) * WINDSPEED;
@@ -166,7 +114,7 @@ public class TargetStats {
     }
 
     public TargetStats getHeuristicDistance(ArrayList<Integer> availableTargetIndices, Point currentLoc, 
-        List<Point> groupLocations, Map<Integer, Set<Integer>> visited_set, int id) {
+        List<Point> groupLocations, Visits visits, int id) {
 
         TargetStats targetStats = new TargetStats();
         double maxTargetValue = 0.0;
@@ -179,12 +127,10 @@ public class TargetStats {
                 double targetRealValue = numPlayers;
                 double targerProjectedValue = numPlayers;
 
-                for (int p = 0; p < numPlayers && visited_set != null; p++) {
+                for (int p = 0; p < numPlayers && visits != null; p++) {
                     if(p == id) continue;
 
-                    Set<Integer> playerVisitedTargets = visited_set.get(p);
-
-                    if(playerVisitedTargets.contains(targetIndex))   {
+                    if(visits.isVisited(p, targetIndex))   {
                         targetRealValue--;
                         targerProjectedValue--;
                     }
@@ -195,7 +141,7 @@ public class TargetStats {
                     }
                 }
 
-                double timeToTarget = Point.getDistance(currentLoc, target)/Simulator.getSpeed(Point.getDirection(currentLoc, target), wind_direction);
+                double timeToTarget = travelTimes.time(currentLoc, target);
                 double distToTarget = relativeDistance(groupLocations,target);
                 double heuristic = targetRealValue*targerProjectedValue/timeToTarget;
 
@@ -218,14 +164,14 @@ public class TargetStats {
             if(p==id){
                 continue;
             }
-            dist+=Point.getDistance(groupLocations.get(p), target)/Simulator.getSpeed(Point.getDirection(groupLocations.get(p), target), wind_direction);
+            dist+=travelTimes.time(groupLocations.get(p), target);
         }
         return  dist;
     }
 
     public boolean playerWillReachTargetFirst(int p, Point target,List<Point> groupLocations, Point currentLoc){
-        double t1  = Point.getDistance(currentLoc, target)/Simulator.getSpeed(Point.getDirection(currentLoc, target), wind_direction);
-        double t2 = Point.getDistance(groupLocations.get(p), target)/Simulator.getSpeed(Point.getDirection(groupLocations.get(p), target), wind_direction);
+        double t1  = travelTimes.time(currentLoc, target);
+        double t2 = travelTimes.time(groupLocations.get(p), target);
         return t1<=t2;
     }
 
@@ -238,7 +184,7 @@ public class TargetStats {
         double d;
         double minDist = 10000000;
         for (int i : availableTargetIndices) {
-            d = Point.getDistance(currentLoc, targets.get(i))/Simulator.getSpeed(Point.getDirection(currentLoc, targets.get(i)), wind_direction);
+            d = travelTimes.time(currentLoc, targets.get(i));
             if (d < minDist) {
                 minDist = d;
                 closest = targets.get(i);
@@ -256,9 +202,9 @@ public class TargetStats {
     }
 
     public double getPathDistanceByTime(Point currentLoc, ArrayList<Point> path) {
-        double ret = Point.getDistance(currentLoc, path.get(0))/Simulator.getSpeed(Point.getDirection(currentLoc, path.get(0)), wind_direction);
+        double ret = travelTimes.time(currentLoc, path.get(0));
         for (int i = 1; i < path.size(); i++) {
-            ret += Point.getDistance(path.get(i-1), path.get(i))/Simulator.getSpeed(Point.getDirection(path.get(i-1), path.get(i)), wind_direction);
+            ret += travelTimes.time(path.get(i-1), path.get(i));
         }
         return ret;
     }
@@ -340,7 +286,7 @@ public class TargetStats {
     }
 
     public ArrayList<Point> getkOptimalTargets(ArrayList<Integer> availableTargetIndices, Point currentLoc, 
-        List<Point> groupLocations, Map<Integer, Set<Integer>> visited_set, int id, int k) {
+        List<Point> groupLocations, Visits visits, int id, int k) {
 
         double maxTargetValue = 0.0;
         int numPlayers = groupLocations.size();
@@ -354,12 +300,10 @@ public class TargetStats {
             double targetRealValue = numPlayers;
             double targerProjectedValue = numPlayers;
 
-            for (int p = 0; p < numPlayers && visited_set != null; p++) {
+            for (int p = 0; p < numPlayers && visits != null; p++) {
                 if(p == id) continue;
 
-                Set<Integer> playerVisitedTargets = visited_set.get(p);
-
-                if(playerVisitedTargets.contains(targetIndex))   {
+                if(visits.isVisited(p, targetIndex))   {
                     targetRealValue--;
                     targerProjectedValue--;
                 }
@@ -370,7 +314,7 @@ public class TargetStats {
                 }
             }
 
-            double timeToTarget = Point.getDistance(currentLoc, target)/Simulator.getSpeed(Point.getDirection(currentLoc, target), wind_direction);
+            double timeToTarget = travelTimes.time(currentLoc, target);
             double heuristic = targetRealValue*targerProjectedValue/timeToTarget;
             scores.put(targetIndex, heuristic);
         }
@@ -421,13 +365,13 @@ public class TargetStats {
             targetSequence = new ArrayList<Point>();
             tmpAvailableTargetIndices = new ArrayList<Integer>(availableTargetIndices);            
             tmpAvailableTargetIndices.remove(new Integer(targetIndex));
-            accum += Point.getDistance(currentLoc, target)/Simulator.getSpeed(Point.getDirection(currentLoc, target), wind_direction);
+            accum += travelTimes.time(currentLoc, target);
 
             while(counter < k-1)  {
 
                 targetSequence.add(target);            
                 nextCurrentLoc = target;
-                TargetStats targetStats = getHeuristicDistance(tmpAvailableTargetIndices, nextCurrentLoc, groupLocations, visited_set, id);
+                TargetStats targetStats = getHeuristicDistance(tmpAvailableTargetIndices, nextCurrentLoc, groupLocations, visits, id);
                 nextTargetIndex = targetStats.targetIndex;
 
                 target = targets.get(nextTargetIndex);
@@ -447,4 +391,4 @@ public class TargetStats {
         return nextSequence;
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -7,6 +7,8 @@ import sail.sim.Point;
 
 public class ClusterInfo {
 	ArrayList<Integer> clusterPoints;
+	// of the cluster in ClusterTracker
+	int index;
 	public Point clusterMean;
 	public Point closestClusterPoint;
 	public double timeToCluster;
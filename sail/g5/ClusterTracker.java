@@ -0,0 +1,170 @@
+package sail.g5;
+
+import java.util.Arrays;
+import java.util.List;
+import sail.sim.Point;
+import sail.sim.TravelTimes;
+
+/**
+ * What is left of every cluster as the players visit targets, kept up to date
+ * one visit at a time: visited costs O(players), picking the next cluster
+ * O(clusters x players), no matter how many targets there are.
+ *
+ * For every cluster it keeps the targets we have not visited, their centroid,
+ * and for every player the remaining score of the targets that player has not
+ * visited, the score of a target being the players that have not visited it.
+ * Ours is the score still to be had from the cluster.
+ *
+ * The heuristic of a cluster sums, over its targets, the score of a target
+ * times how long the others that still want it take to get there. The time to
+ * the centroid of the cluster stands in for the time to each of its targets,
+ * so none of them has to be walked:
+ *   sum over others p of remaining(p) * time(p, centroid) + 15 time(us, centroid) + 50 / distance(centroid, middle)
+ */
+public class ClusterTracker {
+	private final int numPlayers;
+	private final int id;
+	private final int numClusters;
+	private final double[] xs, ys;
+
+	// cluster of every target, -1 for none
+	private final int[] clusterOf;
+	// the visits seen so far, visited[player * numTargets + target]
+	private final boolean[] visited;
+	private final int[] visitCount;
+
+	// per cluster: targets we have not visited, the sum of their coordinates, and if it is still to be picked
+	private final int[] left;
+	private final double[] sumX, sumY;
+	private final boolean[] open;
+	// remaining[cluster * numPlayers + player], the score of the targets of the cluster the player has not visited
+	private final int[] remaining;
+
+	public ClusterTracker(List<Point> targets, List<? extends List<Integer>> clusters, int numPlayers, int id) {
+		int numTargets = targets.size();
+		this.numPlayers = numPlayers;
+		this.id = id;
+		numClusters = clusters.size();
+		xs = new double[numTargets];
+		ys = new double[numTargets];
+		for (int t = 0; t < numTargets; t++) {
+			xs[t] = targets.get(t).x;
+			ys[t] = targets.get(t).y;
+		}
+		clusterOf = new int[numTargets];
+		Arrays.fill(clusterOf, -1);
+		visited = new boolean[numPlayers * numTargets];
+		visitCount = new int[numTargets];
+		left = new int[numClusters];
+		sumX = new double[numClusters];
+		sumY = new double[numClusters];
+		open = new boolean[numClusters];
+		remaining = new int[numClusters * numPlayers];
+		for (int c = 0; c < numClusters; c++) {
+			open[c] = true;
+			for (int t : clusters.get(c)) {
+				if (clusterOf[t] >= 0)
+					throw new IllegalArgumentException("Target " + t + " in clusters " + clusterOf[t] + " and " + c);
+				clusterOf[t] = c;
+				left[c]++;
+				sumX[c] += xs[t];
+				sumY[c] += ys[t];
+				for (int p = 0; p < numPlayers; p++)
+					remaining[c * numPlayers + p] += numPlayers;
+			}
+		}
+	}
+
+	public int size() {
+		return numClusters;
+	}
+
+	// player has visited target, again or not
+	public void visited(int player, int target) {
+		int numTargets = clusterOf.length;
+		if (visited[player * numTargets + target])
+			return;
+		int c = clusterOf[target];
+		if (c >= 0) {
+			int score = numPlayers - visitCount[target];
+			// player does not want it any more, everybody else who does gets a point less
+			for (int p = 0; p < numPlayers; p++) {
+				if (p == player)
+					remaining[c * numPlayers + p] -= score;
+				else if (!visited[p * numTargets + target])
+					remaining[c * numPlayers + p]--;
+			}
+			if (player == id) {
+				left[c]--;
+				sumX[c] -= xs[target];
+				sumY[c] -= ys[target];
+			}
+		}
+		visited[player * numTargets + target] = true;
+		visitCount[target]++;
+	}
+
+	public int left(int cluster) {
+		return left[cluster];
+	}
+
+	public int remainingScore(int cluster) {
+		return remaining[cluster * numPlayers + id];
+	}
+
+	// of the targets we have not visited, undefined if there are none
+	public double centroidX(int cluster) {
+		return sumX[cluster] / left[cluster];
+	}
+
+	public double centroidY(int cluster) {
+		return sumY[cluster] / left[cluster];
+	}
+
+	public Point centroid(int cluster) {
+		return new Point(centroidX(cluster), centroidY(cluster));
+	}
+
+	public boolean isOpen(int cluster) {
+		return open[cluster];
+	}
+
+	// not to be picked again
+	public void close(int cluster) {
+		open[cluster] = false;
+	}
+
+	public double heuristic(int cluster, List<Point> groupLocations, TravelTimes travelTimes) {
+		double x = centroidX(cluster), y = centroidY(cluster);
+		double heuristic = 0;
+		for (int p = 0; p < numPlayers; p++) {
+			if (p == id)
+				continue;
+			int score = remaining[cluster * numPlayers + p];
+			if (score == 0)
+				continue;
+			Point player = groupLocations.get(p);
+			heuristic += score * travelTimes.time(player.x, player.y, x, y);
+		}
+		Point us = groupLocations.get(id);
+		double time = travelTimes.time(us.x, us.y, x, y);
+		double distanceFromMid = Math.hypot(x - 5, y - 5);
+		return heuristic + 15 * time + 50 / distanceFromMid;
+	}
+
+	// the open cluster with targets left of the highest heuristic above 0, -1 if none
+	public int best(List<Point> groupLocations, TravelTimes travelTimes) {
+		int best = -1;
+		double maxHeuristic = 0;
+		for (int c = 0; c < numClusters; c++) {
+			if (!open[c] || left[c] == 0)
+				continue;
+			double heuristic = heuristic(c, groupLocations, travelTimes);
+			if (heuristic > maxHeuristic) {
+				best = c;
+				maxHeuristic = heuristic;
+			}
+		}
+		return best;
+	}
+}
@@ -1,249 +1,273 @@
 package sail.g5;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import sail.sim.Point;
 
 /**
  * Implementation of density-based clustering algorithm DBSCAN.
- * 
- * Publication: 
- * Ester, Martin; Kriegel, Hans-Peter; Sander, Jrg; Xu, Xiaowei (1996). 
- * Simoudis, Evangelos; Han, Jiawei; Fayyad, Usama M., eds. 
- * A density-based algorithm for discovering clusters in large spatial 
- * databases with noise. Proceedings of the Second International Conference 
+ *
+ * Publication:
+ * Ester, Martin; Kriegel, Hans-Peter; Sander, Jrg; Xu, Xiaowei (1996).
+ * Simoudis, Evangelos; Han, Jiawei; Fayyad, Usama M., eds.
+ * A density-based algorithm for discovering clusters in large spatial
+ * databases with noise. Proceedings of the Second International Conference
  * on Knowledge Discovery and Data Mining (KDD-96). AAAI Press. pp. 226231
- * 
+ *
+ * The neighbours of a point are the points (itself included) at most epsilon
+ * from it by the metric, which need not be symmetric, e.g. sailing times. They
+ * are looked for in a grid over the points with cells reach across: reach has
+ * to be at least the straight line distance of any two points that are within
+ * epsilon of each other, so only the 3 x 3 cells around a point can hold its
+ * neighbours. Without a metric it is the straight line distance and reach is
+ * epsilon.
+ *
+ * A point with at least minimumNumberOfClusterMembers neighbours is a core
+ * point. A cluster is everything reachable from a core point through core
+ * points, each point is in one cluster at most, points in none are noise.
+ * Labels and visits are int arrays and cluster members a BitSet, nothing is
+ * copied. Once a point is known to be a core point only the neighbours not in
+ * a cluster yet are of interest, so cells without any are skipped: with cells
+ * that hold a few points each it is about O(n), and when most of the points
+ * are in one big cluster about O(n minimumNumberOfClusterMembers) after the
+ * first few queries, 500 targets take a fraction of a ms either way.
+ *
  * Usage:
- * - Identify type of input values.
- * - Implement metric for input value type using DistanceMetric interface.
- * - Instantiate using {@link #DBSCANClusterer(Collection, int, double, DistanceMetric)}.
- * - Invoke {@link #performClustering()}.
- * 
- * See tests and metrics for example implementation and use.
- * 
- * @author <a href="mailto:cf@christopherfrantz.org>Christopher Frantz</a>
+ * - Instantiate using {@link #DBSCANClusterer(List, int, double, double, Metric)}.
+ * - Invoke {@link #performClustering()}, then {@link #labels()} if needed.
  *
- * @param <V> Input value type
+ * @author <a href="mailto:cf@christopherfrantz.org>Christopher Frantz</a>
  */
-public class DBSCANClusterer<V> {
+public class DBSCANClusterer {
+
+	public interface Metric {
+		double distance(int from, int to);
+	}
+
+	/** label of points in no cluster */
+	public static final int NOISE = -1;
+
+	/** label of points not looked at yet */
+	private static final int UNCLASSIFIED = -2;
+
+	/** most grid cells along a side, however small reach is */
+	private static final int MAX_CELLS = 1024;
 
 	/** maximum distance of values to be considered as cluster */
-	private double epsilon = 1f;
+	private final double epsilon;
 
 	/** minimum number of members to consider cluster */
-	private int minimumNumberOfClusterMembers = 2;
+	private final int minimumNumberOfClusterMembers;
+
+	/** null for the straight line distance */
+	private final Metric metric;
+
+	private final int n;
+	private final double[] xs, ys;
 
-	/** distance metric applied for clustering **/
-//	private DistanceMetric<V> metric = null;
+	/** the grid, points of cell c are cellPoints[cellStart[c] .. cellStart[c + 1] - 1] */
+	private final double minX, minY, cellSize;
+	private final int columns, rows;
+	private final int[] cellStart, cellPoints;
 
-	/** internal list of input values to be clustered */
-	private ArrayList<V> inputValues = null;
+	/** cluster of every point, or NOISE, once clustered */
+	private int[] labels;
 
-	/** index maintaining visited points */
-	private HashSet<V> visitedPoints = new HashSet<V>();
-	
-	private double[][] distances;
+	/** points of every cell that are UNCLASSIFIED or NOISE while clustering */
+	private int[] open;
+
+	/** members of every cluster, once clustered */
+	private ArrayList<BitSet> memberships;
+
+	public DBSCANClusterer(final List<Point> inputValues, int minNumElements, double maxDistance) {
+		this(inputValues, minNumElements, maxDistance, maxDistance, null);
+	}
 
 	/**
-	 * Creates a DBSCAN clusterer instance. 
-	 * Upon instantiation, call {@link #performClustering()} 
+	 * Creates a DBSCAN clusterer instance.
+	 * Upon instantiation, call {@link #performClustering()}
 	 * to perform the actual clustering.
-	 * 
+	 *
 	 * @param inputValues Input values to be clustered
 	 * @param minNumElements Minimum number of elements to constitute cluster
 	 * @param maxDistance Maximum distance of elements to consider clustered
-	 * @param metric Metric implementation to determine distance 
+	 * @param reach Longest straight line between two elements within maxDistance
+	 * @param metric Distance between elements by index, null for the straight line
 	 */
-	public DBSCANClusterer(final Collection<V> inputValues, int minNumElements, double maxDistance, double[][] distances){
-		setInputValues(inputValues);
-		setMinimalNumberOfMembersForCluster(minNumElements);
-		setMaximalDistanceOfClusterMembers(maxDistance);
-		setDistances(distances);
+	public DBSCANClusterer(final List<Point> inputValues, int minNumElements, double maxDistance, double reach, Metric metric) {
+		if (maxDistance < 0 || !(reach > 0))
+			throw new IllegalArgumentException("DBSCAN: distance " + maxDistance + " and reach " + reach + " have to be positive");
+		this.epsilon = maxDistance;
+		this.minimumNumberOfClusterMembers = minNumElements;
+		this.metric = metric;
+		n = inputValues.size();
+		xs = new double[n];
+		ys = new double[n];
+		double maxX = 0, maxY = 0, lowX = 0, lowY = 0;
+		for (int i = 0; i < n; i++) {
+			Point p = inputValues.get(i);
+			xs[i] = p.x;
+			ys[i] = p.y;
+			if (i == 0 || p.x < lowX) lowX = p.x;
+			if (i == 0 || p.y < lowY) lowY = p.y;
+			if (i == 0 || p.x > maxX) maxX = p.x;
+			if (i == 0 || p.y > maxY) maxY = p.y;
+		}
+		minX = lowX;
+		minY = lowY;
+		// cells no smaller than reach, and not too many of them
+		cellSize = Math.max(reach, Math.max(maxX - minX, maxY - minY) / MAX_CELLS);
+		columns = (int) ((maxX - minX) / cellSize) + 1;
+		rows = (int) ((maxY - minY) / cellSize) + 1;
+		cellStart = new int[columns * rows + 1];
+		cellPoints = new int[n];
+		for (int i = 0; i < n; i++)
+			cellStart[cell(i) + 1]++;
+		for (int c = 0; c < columns * rows; c++)
+			cellStart[c + 1] += cellStart[c];
+		int[] at = Arrays.copyOf(cellStart, columns * rows);
+		for (int i = 0; i < n; i++)
+			cellPoints[at[cell(i)]++] = i;
 	}
 
-	
-	/**
-	 * Sets the distances
-	 *  
-	 * @param distances
-	 */
-	public void setDistances(double[][] distances){
-//		if (metric == null) {
-//			throw new DBSCANClusteringException("DBSCAN: Distance metric has not been specified (null).");
-//		}
-		this.distances = new double[distances.length][distances[0].length];
-		for(int i = 0; i < distances.length; i++){
-			for(int j = 0; j < distances[0].length; j++){
-				this.distances[i][j] = distances[i][j];
-			}
-		}
+	private int column(int i) {
+		return Math.min(columns - 1, (int) ((xs[i] - minX) / cellSize));
 	}
 
-	/**
-	 * Sets the distance metric
-	 * 
-	 * @param metric
-	 */
-//	public void setDistanceMetric(final DistanceMetric<V> metric){
-////		if (metric == null) {
-////			throw new DBSCANClusteringException("DBSCAN: Distance metric has not been specified (null).");
-////		}
-//		this.metric = metric;
-//	}
+	private int row(int i) {
+		return Math.min(rows - 1, (int) ((ys[i] - minY) / cellSize));
+	}
 
-	/**
-	 * Sets a collection of input values to be clustered.
-	 * Repeated call overwrite the original input values.
-	 * 
-	 * @param collection
-	 */
-	public void setInputValues(final Collection<V> collection){
-//		if (collection == null) {
-//			throw new DBSCANClusteringException("DBSCAN: List of input values is null.");
-//		}
-		this.inputValues = new ArrayList<V>(collection);
+	private int cell(int i) {
+		return row(i) * columns + column(i);
 	}
 
-	/**
-	 * Sets the minimal number of members to consider points of close proximity
-	 * clustered.
-	 * 
-	 * @param minimalNumberOfMembers
-	 */
-	public void setMinimalNumberOfMembersForCluster(final int minimalNumberOfMembers) {
-		this.minimumNumberOfClusterMembers = minimalNumberOfMembers;
+	private boolean isNeighbour(int from, int to) {
+		double dx = xs[from] - xs[to], dy = ys[from] - ys[to];
+		if (metric == null)
+			return dx * dx + dy * dy <= epsilon * epsilon;
+		return dx * dx + dy * dy <= cellSize * cellSize && metric.distance(from, to) <= epsilon;
 	}
 
-	/**
-	 * Sets the maximal distance members of the same cluster can have while
-	 * still be considered in the same cluster.
-	 * 
-	 * @param maximalDistance
-	 */
-	public void setMaximalDistanceOfClusterMembers(final double maximalDistance) {
-		this.epsilon = maximalDistance;
+	private boolean isOpen(int i) {
+		return labels[i] == UNCLASSIFIED || labels[i] == NOISE;
 	}
 
 	/**
-	 * Determines the neighbours of a given input value.
-	 * 
-	 * @param inputValue Input value for which neighbours are to be determined
-	 * @return list of neighbours 
-	 */
-//	private ArrayList<V> getNeighbours(final V inputValue){
-//		ArrayList<V> neighbours = new ArrayList<V>();
-//		for(int i=0; i<inputValues.size(); i++) {
-//			V candidate = inputValues.get(i);
-//			if (metric.calculateDistance(inputValue, candidate) <= epsilon) {
-//				neighbours.add(candidate);
-//			}
-//		}
-//		return neighbours;
-//	}
-	
-	/**
-	 * Determines the neighbours of a given input value.
-	 * 
-	 * @param inputValue Input value for which neighbours are to be determined
-	 * @return list of neighbours 
+	 * Determines the neighbours of a given input value that are in no cluster
+	 * yet, if it is a core point.
+	 *
+	 * @param index Input value for which neighbours are to be determined
+	 * @param out Where to write them, room for all the input values
+	 * @return number of them, -1 if index is not a core point
 	 */
-	private ArrayList<Integer> getNeighboursFromIndex(int index){
-		ArrayList<Integer> neighbours = new ArrayList<Integer>();
-		for(int i=0; i<inputValues.size(); i++) {
-//			V candidate = inputValues.get(i);
-			if (distances[index][i] <= epsilon) {
-				neighbours.add(i);
+	private int getNeighboursFromIndex(int index, int[] out) {
+		int found = 0, count = 0;
+		int column = column(index), row = row(index);
+		for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+			for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+				int cell = r * columns + c;
+				boolean core = found >= minimumNumberOfClusterMembers;
+				if (core && open[cell] == 0)
+					continue;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int i = cellPoints[k];
+					boolean isOpen = isOpen(i);
+					if (core && !isOpen)
+						continue;
+					if (!isNeighbour(index, i))
+						continue;
+					found++;
+					core = found >= minimumNumberOfClusterMembers;
+					if (isOpen)
+						out[count++] = i;
+				}
 			}
 		}
-		return neighbours;
+		return found >= minimumNumberOfClusterMembers ? count : -1;
 	}
 
-
-	/**
-	 * Merges the elements of the right collection to the left one and returns
-	 * the combination.
-	 * 
-	 * @param neighbours1 left collection
-	 * @param neighbours2 right collection
-	 * @return Modified left collection
-	 */
-	private ArrayList<Integer> mergeRightToLeftCollection(final ArrayList<Integer> neighbours1,
-			final ArrayList<Integer> neighbours2) {
-		for (int i = 0; i < neighbours2.size(); i++) {
-			int tempPt = neighbours2.get(i);
-			if (!neighbours1.contains(tempPt)) {
-				neighbours1.add(tempPt);
-			}
-		}
-		return neighbours1;
+	private void label(int i, int cluster) {
+		labels[i] = cluster;
+		open[cell(i)]--;
 	}
 
 	/**
 	 * Applies the clustering and returns a collection of clusters (i.e. a list
-	 * of lists of the respective cluster members).
-	 * 
+	 * of lists of the respective cluster members, each in the order the cluster
+	 * grew to them, so that points close in the list are close by). Clusters
+	 * come in the order of their first core point.
+	 *
 	 * @return
 	 */
 	public ArrayList<ArrayList<Integer>> performClustering() {
-
-//		if (inputValues == null) {
-//			throw new DBSCANClusteringException("DBSCAN: List of input values is null.");
-//		}
-//
-//		if (inputValues.isEmpty()) {
-//			throw new DBSCANClusteringException("DBSCAN: List of input values is empty.");
-//		}
-//
-//		if (inputValues.size() < 2) {
-//			throw new DBSCANClusteringException("DBSCAN: Less than two input values cannot be clustered. Number of input values: " + inputValues.size());
-//		}
-//
-//		if (epsilon < 0) {
-//			throw new DBSCANClusteringException("DBSCAN: Maximum distance of input values cannot be negative. Current value: " + epsilon);
-//		}
-//
-//		if (minimumNumberOfClusterMembers < 2) {
-//			throw new DBSCANClusteringException("DBSCAN: Clusters with less than 2 members don't make sense. Current value: " + minimumNumberOfClusterMembers);
-//		}
-
 		ArrayList<ArrayList<Integer>> resultList = new ArrayList<ArrayList<Integer>>();
-		visitedPoints.clear();
-
-		ArrayList<Integer> neighbours;
-		int index = 0;
-
-		while (inputValues.size() > index) {
-			V p = inputValues.get(index);
-			if (!visitedPoints.contains(p)) {
-				visitedPoints.add(p);
-//				neighbours = getNeighbours(p);
-				neighbours = getNeighboursFromIndex(index);
-
-				if (neighbours.size() >= minimumNumberOfClusterMembers) {
-					int ind = 0;
-					while (neighbours.size() > ind) {
-						V r = inputValues.get(neighbours.get(ind));
-						if (!visitedPoints.contains(r)) {
-							visitedPoints.add(r);
-//							ArrayList<V> individualNeighbours = getNeighbours(r);
-							ArrayList<Integer> individualNeighbours = getNeighboursFromIndex(ind);
-							if (individualNeighbours.size() >= minimumNumberOfClusterMembers) {
-								neighbours = mergeRightToLeftCollection(
-										neighbours,
-										individualNeighbours);
-							}
-						}
-						ind++;
-					}
-					//TODO: Take this outside this block
-					resultList.add(neighbours);
+		memberships = new ArrayList<BitSet>();
+		labels = new int[n];
+		Arrays.fill(labels, UNCLASSIFIED);
+		open = new int[columns * rows];
+		for (int c = 0; c < columns * rows; c++)
+			open[c] = cellStart[c + 1] - cellStart[c];
+		int[] neighbours = new int[n];
+		// points of the cluster to expand from, each one is queued once at most
+		int[] queue = new int[n];
+
+		for (int index = 0; index < n; index++) {
+			if (labels[index] != UNCLASSIFIED)
+				continue;
+			int count = getNeighboursFromIndex(index, neighbours);
+			if (count < 0) {
+				// may still turn out to be the border of a cluster
+				labels[index] = NOISE;
+				continue;
+			}
+			int cluster = resultList.size();
+			BitSet members = new BitSet(n);
+			ArrayList<Integer> clusterPoints = new ArrayList<Integer>();
+			int head = 0, tail = 0;
+			while (true) {
+				for (int k = 0; k < count; k++) {
+					int r = neighbours[k];
+					if (labels[r] == UNCLASSIFIED && r != index)
+						queue[tail++] = r;
+					label(r, cluster);
+					members.set(r);
+					clusterPoints.add(r);
 				}
-//				resultList.add(neighbours);
+				if (head == tail)
+					break;
+				int r = queue[head++];
+				count = Math.max(0, getNeighboursFromIndex(r, neighbours));
 			}
-			index++;
+			memberships.add(members);
+			resultList.add(clusterPoints);
 		}
 		return resultList;
 	}
 
+	/**
+	 * The cluster of every input value after {@link #performClustering()},
+	 * its index in the list it returned, or NOISE.
+	 *
+	 * @return a copy
+	 */
+	public int[] labels() {
+		if (labels == null)
+			throw new IllegalStateException("DBSCAN: not clustered yet");
+		return labels.clone();
+	}
+
+	/**
+	 * The members of a cluster after {@link #performClustering()}.
+	 *
+	 * @param cluster its index in the list performClustering returned
+	 * @return a copy
+	 */
+	public BitSet members(int cluster) {
+		if (memberships == null)
+			throw new IllegalStateException("DBSCAN: not clustered yet");
+		return (BitSet) memberships.get(cluster).clone();
+	}
 }
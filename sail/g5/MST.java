@@ -1,124 +1,359 @@
-// A Java program for Prim's Minimum Spanning Tree (MST) algorithm.
-// The program is for adjacency matrix representation of the graph
-
 package sail.g5;
 
-import java.util.*;
-import java.lang.*;
-import java.io.*;
+import java.util.Arrays;
 
+/**
+ * Prim's minimum spanning tree, on primitive arrays, rooted where it started.
+ *
+ * Two ways to build one:
+ * - dense(n, root, weights) looks at every pair, O(V^2) time and O(V) memory
+ *   besides the weights, a flat row-major matrix or any function. The best
+ *   choice while V is a few thousand at most.
+ * - candidates(graph, root, weights) only follows the edges of a candidate
+ *   graph, e.g. nearestNeighbors(n, k, weights), with an indexed binary heap,
+ *   O(E log V). Where the candidates leave the tree in pieces it is joined up
+ *   through weights, so it always spans all V, but it is the MST of the
+ *   candidates and not necessarily of the full graph.
+ *
+ * Weights need not be symmetric: an edge is weighed from the tree towards the
+ * vertex it adds. Zero weights are edges like any other, coincident targets
+ * are fine.
+ *
+ * The tree keeps its children in index order in one flat array, built in O(V),
+ * and preorder walks it with a stack of its own, no recursion.
+ *
+ * E.g. for a tour of the targets from the start as vertex n:
+ *   int[] order = MST.dense(n + 1, n, (u, v) -> time[u*(n + 1) + v]).preorder();
+ */
 public class MST
 {
-	// Number of vertices in the graph
-	private int V=5;
+	public interface Weights
+	{
+		double weight(int from, int to);
+	}
 
-	// A utility function to find the vertex with minimum key
-	// value, from the set of vertices not yet included in MST
-	int minKey(double key[], Boolean mstSet[])
+	// A graph as adjacency lists in flat arrays: the edges of u are at start[u] .. start[u + 1] - 1.
+	public static final class Graph
 	{
-		// Initialize min value
-		double min = Double.MAX_VALUE;
-		int min_index=-1;
+		final int[] start;
+		final int[] to;
+		final double[] weight;
 
-		for (int v = 0; v < V; v++)
-			if (mstSet[v] == false && key[v] < min)
-			{
-				min = key[v];
-				min_index = v;
-			}
+		public Graph(int[] start, int[] to, double[] weight)
+		{
+			if (start.length < 1 || to.length != weight.length || start[start.length - 1] != to.length)
+				throw new IllegalArgumentException("Edge lists do not match: " + start.length + " starts, " + to.length + " edges");
+			this.start = start;
+			this.to = to;
+			this.weight = weight;
+		}
 
-		return min_index;
+		public int size()
+		{
+			return start.length - 1;
+		}
 	}
 
-	// A utility function to print the constructed MST stored in
-	// parent[]
-	void printMST(int parent[], int n, double graph[][])
+	private final int root;
+	// parent of every vertex, -1 for the root
+	private final int[] parents;
+	// the children of u are children[childStart[u] .. childStart[u + 1] - 1]
+	private final int[] childStart;
+	private final int[] children;
+
+	private MST(int root, int[] parents)
 	{
-		System.out.println("Edge Weight");
-		for (int i = 1; i < V; i++)
-			System.out.println(parent[i]+" - "+ i+" "+
-							graph[i][parent[i]]);
+		int n = parents.length;
+		this.root = root;
+		this.parents = parents;
+		childStart = new int[n + 1];
+		for (int v = 0; v < n; v++)
+			if (parents[v] >= 0)
+				childStart[parents[v] + 1]++;
+		for (int u = 0; u < n; u++)
+			childStart[u + 1] += childStart[u];
+		children = new int[n - 1];
+		int[] at = Arrays.copyOf(childStart, n);
+		for (int v = 0; v < n; v++)
+			if (parents[v] >= 0)
+				children[at[parents[v]]++] = v;
 	}
 
-	// Function to construct and print MST for a graph represented
-	// using adjacency matrix representation
-	int[] primMST(double graph[][])
+	public static MST dense(double[] weights, int n, int root)
 	{
-		V = graph.length;
-		
-		// Array to store constructed MST
-		int parent[] = new int[V];
-
-		// Key values used to pick minimum weight edge in cut
-		double key[] = new double [V];
-
-		// To represent set of vertices not yet included in MST
-		Boolean mstSet[] = new Boolean[V];
+		if (weights.length < n * n)
+			throw new IllegalArgumentException("Need " + n + " x " + n + " weights, got " + weights.length);
+		return dense(n, root, (u, v) -> weights[u * n + v]);
+	}
 
-		// Initialize all keys as INFINITE
-		for (int i = 0; i < V; i++)
+	public static MST dense(int n, int root, Weights weights)
+	{
+		checkRoot(n, root);
+		int[] parents = new int[n];
+		double[] key = new double[n];
+		boolean[] inTree = new boolean[n];
+		Arrays.fill(key, Double.POSITIVE_INFINITY);
+		key[root] = 0;
+		parents[root] = -1;
+		for (int count = 0; count < n; count++)
 		{
-			key[i] = Double.MAX_VALUE;
-			mstSet[i] = false;
+			// the vertex closest to the tree, lowest index on ties
+			int u = -1;
+			for (int v = 0; v < n; v++)
+				if (!inTree[v] && (u < 0 || key[v] < key[u]))
+					u = v;
+			inTree[u] = true;
+			for (int v = 0; v < n; v++)
+			{
+				if (inTree[v])
+					continue;
+				double w = weights.weight(u, v);
+				if (w < key[v])
+				{
+					key[v] = w;
+					parents[v] = u;
+				}
+			}
 		}
+		return new MST(root, parents);
+	}
 
-		// Always include first 1st vertex in MST.
-		key[V-1] = 0;	 // Make key 0 so that this vertex is
-						// picked as first vertex
-		parent[V-1] = -1; // Last node is always root of MST
+	public static MST candidates(Graph graph, int root, Weights weights)
+	{
+		int n = graph.size();
+		checkRoot(n, root);
+		int[] parents = new int[n];
+		boolean[] inTree = new boolean[n];
+		Heap heap = new Heap(n);
+		parents[root] = -1;
+		heap.offer(root, 0);
+		int count = 0;
+		while (count < n)
+		{
+			if (heap.isEmpty())
+			{
+				// the candidates reach no further, join what is left through its closest edge to the tree
+				for (int v = 0; v < n; v++)
+				{
+					if (inTree[v])
+						continue;
+					for (int u = 0; u < n; u++)
+						if (inTree[u] && heap.offer(v, weights.weight(u, v)))
+							parents[v] = u;
+				}
+			}
+			int u = heap.poll();
+			inTree[u] = true;
+			count++;
+			for (int e = graph.start[u]; e < graph.start[u + 1]; e++)
+			{
+				int v = graph.to[e];
+				if (!inTree[v] && heap.offer(v, graph.weight[e]))
+					parents[v] = u;
+			}
+		}
+		return new MST(root, parents);
+	}
 
-		// The MST will have V vertices
-		for (int count = 0; count < V-1; count++)
+	/**
+	 * The k lightest edges out of every vertex, plus the same pairs the other way
+	 * round so that a vertex also reaches whoever has it as a neighbor. O(V^2)
+	 * weights looked at, each pair once per direction.
+	 */
+	public static Graph nearestNeighbors(int n, int k, Weights weights)
+	{
+		if (k < 1)
+			throw new IllegalArgumentException("Need at least one neighbor: " + k);
+		k = Math.min(k, n - 1);
+		int[] nearest = new int[n * k];
+		double[] near = new double[k];
+		for (int u = 0; u < n; u++)
 		{
-			// Pick thd minimum key vertex from the set of vertices
-			// not yet included in MST
-			int u = minKey(key, mstSet);
-
-			// Add the picked vertex to the MST Set
-			mstSet[u] = true;
-
-			// Update key value and parent index of the adjacent
-			// vertices of the picked vertex. Consider only those
-			// vertices which are not yet included in MST
-			for (int v = 0; v < V; v++)
-
-				// graph[u][v] is non zero only for adjacent vertices of m
-				// mstSet[v] is false for vertices not yet included in MST
-				// Update the key only if graph[u][v] is smaller than key[v]
-				if (graph[u][v]!=0 && mstSet[v] == false &&
-					graph[u][v] < key[v])
+			// insertion sort into the k best so far
+			int found = 0;
+			for (int v = 0; v < n; v++)
+			{
+				if (v == u)
+					continue;
+				double w = weights.weight(u, v);
+				if (found == k && w >= near[found - 1])
+					continue;
+				int i = found < k ? found++ : found - 1;
+				while (i > 0 && near[i - 1] > w)
 				{
-					parent[v] = u;
-					key[v] = graph[u][v];
+					near[i] = near[i - 1];
+					nearest[u * k + i] = nearest[u * k + i - 1];
+					i--;
 				}
+				near[i] = w;
+				nearest[u * k + i] = v;
+			}
+		}
+		int[] start = new int[n + 1];
+		for (int u = 0; u < n; u++)
+		{
+			for (int i = 0; i < k; i++)
+			{
+				start[u + 1]++;
+				start[nearest[u * k + i] + 1]++;
+			}
 		}
+		for (int u = 0; u < n; u++)
+			start[u + 1] += start[u];
+		int[] to = new int[start[n]];
+		double[] weight = new double[start[n]];
+		int[] at = Arrays.copyOf(start, n);
+		for (int u = 0; u < n; u++)
+		{
+			for (int i = 0; i < k; i++)
+			{
+				int v = nearest[u * k + i];
+				to[at[u]] = v;
+				weight[at[u]++] = weights.weight(u, v);
+				to[at[v]] = u;
+				weight[at[v]++] = weights.weight(v, u);
+			}
+		}
+		return new Graph(start, to, weight);
+	}
+
+	private static void checkRoot(int n, int root)
+	{
+		if (root < 0 || root >= n)
+			throw new IllegalArgumentException("Root " + root + " of " + n + " vertices");
+	}
 
-		// print the constructed MST
-//		printMST(parent, V, graph);
-		
-		return parent;
+	public int size()
+	{
+		return parents.length;
+	}
+
+	public int root()
+	{
+		return root;
+	}
+
+	public int parent(int v)
+	{
+		return parents[v];
+	}
+
+	public int childCount(int u)
+	{
+		return childStart[u + 1] - childStart[u];
+	}
+
+	public int child(int u, int i)
+	{
+		return children[childStart[u] + i];
 	}
 
-	public static void main (String[] args)
+	// every vertex, each before its children, children in index order; the root comes first
+	public int[] preorder()
 	{
-		/* Let us create the following graph
-		2 3
-		(0)--(1)--(2)
-		| / \ |
-		6| 8/ \5 |7
-		| /	 \ |
-		(3)-------(4)
-			9		 */
-		MST t = new MST();
-		double graph[][] = new double[][] {{0, 2, 0, 6, 0},
-									{2, 0, 3, 8, 5},
-									{0, 3, 0, 0, 7},
-									{6, 8, 0, 0, 9},
-									{0, 5, 7, 9, 0},
-								};
-
-		// Print the solution
-		t.primMST(graph);
+		int n = parents.length;
+		int[] order = new int[n];
+		int[] stack = new int[n];
+		int size = 0, top = 0;
+		stack[top++] = root;
+		while (top > 0)
+		{
+			int u = stack[--top];
+			order[size++] = u;
+			// pushed last to first so the first child comes out first
+			for (int e = childStart[u + 1] - 1; e >= childStart[u]; e--)
+				stack[top++] = children[e];
+		}
+		return order;
+	}
+
+	// A binary min heap of vertices by key, where each vertex is in it at most once.
+	private static final class Heap
+	{
+		private final int[] heap;
+		// where a vertex is in heap, -1 if it is not
+		private final int[] position;
+		private final double[] key;
+		private int size = 0;
+
+		Heap(int n)
+		{
+			heap = new int[n];
+			position = new int[n];
+			key = new double[n];
+			Arrays.fill(position, -1);
+		}
+
+		boolean isEmpty()
+		{
+			return size == 0;
+		}
+
+		// adds v, or lowers its key; false if it already had one no higher
+		boolean offer(int v, double k)
+		{
+			int i = position[v];
+			if (i < 0)
+			{
+				i = size++;
+				heap[i] = v;
+				position[v] = i;
+			}
+			else if (k >= key[v])
+				return false;
+			key[v] = k;
+			up(i);
+			return true;
+		}
+
+		int poll()
+		{
+			int v = heap[0];
+			position[v] = -1;
+			size--;
+			if (size > 0)
+			{
+				heap[0] = heap[size];
+				position[heap[0]] = 0;
+				down(0);
+			}
+			return v;
+		}
+
+		private void up(int i)
+		{
+			int v = heap[i];
+			while (i > 0)
+			{
+				int parent = (i - 1) / 2;
+				if (key[heap[parent]] <= key[v])
+					break;
+				heap[i] = heap[parent];
+				position[heap[i]] = i;
+				i = parent;
+			}
+			heap[i] = v;
+			position[v] = i;
+		}
+
+		private void down(int i)
+		{
+			int v = heap[i];
+			while (true)
+			{
+				int child = 2 * i + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && key[heap[child + 1]] < key[heap[child]])
+					child++;
+				if (key[heap[child]] >= key[v])
+					break;
+				heap[i] = heap[child];
+				position[heap[i]] = i;
+				i = child;
+			}
+			heap[i] = v;
+			position[v] = i;
+		}
 	}
 }
-// This code is contributed by Aakash Hasija
@@ -1,7 +1,16 @@
 package sail.g5;
 
+import sail.sim.AnytimeOptimizer;
+import sail.sim.HeadingSolver;
 import sail.sim.Point;
+import sail.sim.PointMath;
 import sail.sim.Simulator;
+import sail.sim.TourBuilder;
+import sail.sim.TourImprover;
+import sail.sim.TravelTimeMatrix;
+import sail.sim.TravelTimes;
+import sail.sim.SpeedModel;
+import sail.sim.Visits;
 import java.util.concurrent.TimeUnit;
 import java.util.*;
 
@@ -10,9 +19,7 @@ public class Player extends sail.sim.Player {
     double[] avgTargetDistances;
     double[] computedTargetToTargetsWeights;
     List<Point> prevGroupLocations;
-    Map<Integer, Set<Integer>> visitedTargets; // For every player, store which targets he has visited.
-    Map<Integer, Set<Integer>> unvisitedTargets; // For every player, store which target he has NOT visited.
-    Map<Integer, Set<Integer>> playerVisitsByTarget; // For every target, store which players have visited it (been received).
+    Visits visits; // Which player visited which target, null until the first move has finished.
     Set<Point> ourVisitedTargets;
     Set<Integer> ourUnvisitedTargets;
 
@@ -28,16 +35,32 @@ public class Player extends sail.sim.Player {
     Point initialLocation;
     Point currentLocation;
     Point windDirection;
+    // heading and expected position in computeNextDirection
+    private final double[] scratch = new double[4];
+    SpeedModel speedModel;
+    HeadingSolver headingSolver;
+    TravelTimes travelTimes;
+    // target to target, shared with the other players
+    TravelTimeMatrix targetTimes;
 
-    MST mst;
-    double[][] graph;
-    Tree tree;
     ArrayList<Integer> path;
 
     // One of: random, middle, windMiddleToEdges, randomAroundWindMiddleToEdges
     final String INITIAL_POINT = "middle";
-    // One of: greedy, weightedGreedy, mst, clusteringMst, clusteringWeightedGreedy, optimalPath (extremely unefficient)
+    // One of: greedy, weightedGreedy, mst, tour, clusteringMst, clusteringWeightedGreedy, optimalPath (extremely unefficient)
     final String INITIAL_STRATEGY = "weightedGreedy";
+    // How long the tour strategy may take to build its tour, and mst and tour to improve theirs.
+    final long TOUR_BUDGET_NS = 200000000;
+    // Above this many targets the mst strategy spans only the MST_NEIGHBORS nearest of every target.
+    final int MST_DENSE_TARGETS = 1000;
+    final int MST_NEIGHBORS = 10;
+    // A little over the top speed of the boat, sqrt(76/3) at any wind.
+    final double MAX_SPEED = 5.04;
+    // Keep improving the tour in the background while sailing it, the CPU it takes is charged to us.
+    final boolean TOUR_IN_BACKGROUND = true;
+    AnytimeOptimizer optimizer;
+    // The next two targets of the optimizer's route.
+    private final int[] nextTargets = new int[2];
     private String strategy;
 
     // Enable or disable different Weighted Greedy params, to compare results.
@@ -52,8 +75,10 @@ public class Player extends sail.sim.Player {
     final boolean WG_TARGETS_DISTANCES_ENABLED = true;
 
 
+    // The clusters not picked yet.
     ArrayList<ClusterInfo> clusters;
     ClusterInfo currentCluster;
+    ClusterTracker clusterTracker;
 
     @Override
     public Point chooseStartingLocation(Point windDirection, Long seed, int t) {
@@ -62,6 +87,9 @@ public class Player extends sail.sim.Player {
         gen = new Random(seed);
         this.numTargets = t;
         this.windDirection = windDirection;
+        this.speedModel = new SpeedModel(windDirection);
+        this.headingSolver = new HeadingSolver(windDirection);
+        this.travelTimes = new TravelTimes(headingSolver);
 
         switch (INITIAL_POINT) {
             case "random":
@@ -134,120 +162,124 @@ public class Player extends sail.sim.Player {
 //            this.strategy = "greedy";
 //        }
 
-        // Initialize unvisited targets by player map.
-        this.unvisitedTargets = new HashMap<Integer, Set<Integer>>();
-        for (int playerId = 0; playerId < this.numPlayers; ++playerId) {
-            Set<Integer> playerUnvisited = new HashSet<Integer>();
-            for (int i = 0; i < this.numTargets; ++i) {
-                playerUnvisited.add(i);
-            }
-            this.unvisitedTargets.put(playerId, playerUnvisited);
+        // Initialize our unvisited targets.
+        this.ourUnvisitedTargets = new HashSet<Integer>();
+        for (int i = 0; i < this.numTargets; ++i) {
+            this.ourUnvisitedTargets.add(i);
         }
-        this.ourUnvisitedTargets = this.unvisitedTargets.get(this.id);
         this.ourVisitedTargets = new HashSet<Point>();
 
-        // Initialize player visits by target map and averaged distance from one target to the rest.
-        this.playerVisitsByTarget = new HashMap<Integer, Set<Integer>>();
+        // Initialize averaged distance from one target to the rest.
         this.avgTargetDistances = new double[this.numTargets];
         this.computedTargetToTargetsWeights = new double[this.numTargets];
+        this.targetTimes = travelTimeMatrix();
         for (int targetId = 0; targetId < this.numTargets; ++targetId) {
-            Set<Integer> playerVisits = new HashSet<Integer>();
-            this.playerVisitsByTarget.put(targetId, playerVisits);
-
             for (int targetId2 = 0; targetId2 < this.numTargets; ++targetId2) {
                 if (targetId == targetId2) continue;
-                this.avgTargetDistances[targetId] += computeEstimatedTimeToTarget(
-                        this.targets.get(targetId), this.targets.get(targetId2));
+                this.avgTargetDistances[targetId] += this.targetTimes.time(targetId, targetId2);
             }
             this.avgTargetDistances[targetId] /= this.numTargets;
         }
 
         if(this.strategy== "mst"){
-            ArrayList<Point> targetsClone = new ArrayList<Point>();
-            for(Point target: targets){
-                targetsClone.add(target);
+            // The initial location is vertex numTargets, the root.
+            double[] fromStart = new double[numTargets];
+            double[] toStart = new double[numTargets];
+            for(int i = 0; i < numTargets; i++){
+                fromStart[i] = computeEstimatedTimeToTarget(initialLocation, targets.get(i));
+                toStart[i] = computeEstimatedTimeToTarget(targets.get(i), initialLocation);
+            }
+            MST.Weights weights = (u, v) -> u == numTargets ? (v == numTargets ? 0 : fromStart[v])
+                    : v == numTargets ? toStart[u] : targetTimes.time(u, v);
+            MST tree = numTargets <= MST_DENSE_TARGETS
+                    ? MST.dense(numTargets + 1, numTargets, weights)
+                    : MST.candidates(MST.nearestNeighbors(numTargets + 1, MST_NEIGHBORS, weights), numTargets, weights);
+            path = new ArrayList<Integer>();
+            for(int target: tree.preorder()){
+                if(target != numTargets) path.add(target);
             }
-            targetsClone.add(initialLocation);
+            path = improveTour(new TourBuilder(initialLocation, targets, targetTimes, travelTimes), path);
+        }
 
-            graph = new double[numTargets + 1][numTargets + 1];
-            for(int i = 0; i < numTargets + 1; i++){
-                for(int j = 0; j < numTargets + 1; j++){
-                    graph[i][j] = computeEstimatedTimeToTarget(targetsClone.get(i), targetsClone.get(j));
+        else if(this.strategy== "tour"){
+            // A round trip over all the targets, followed like the mst path.
+            TourBuilder tours = new TourBuilder(initialLocation, targets, targetTimes, travelTimes);
+            path = new ArrayList<Integer>();
+            for(int target: tours.build(TourBuilder.Construction.FARTHEST_INSERTION, TOUR_BUDGET_NS)){
+                path.add(target);
+            }
+            path = improveTour(tours, path);
+            if(TOUR_IN_BACKGROUND){
+                int[] tour = new int[path.size()];
+                for(int i = 0; i < tour.length; i++){
+                    tour[i] = path.get(i);
                 }
+                optimizer = new AnytimeOptimizer(initialLocation, targets, targetTimes, travelTimes, tour);
+                startBackground(optimizer);
             }
-
-            mst = new MST();
-            int[] parents = mst.primMST(graph);
-            buildTree(parents);
-            path = new ArrayList<Integer>();
-            tree.preorder(path);
-
-            path.remove(0);
         }
 
         else if(this.strategy== "clusteringMst"){
-            graph = new double[numTargets][numTargets];
-            for(int i = 0; i < numTargets; i++){
-                for(int j = 0; j < numTargets; j++){
-                    graph[i][j] = computeEstimatedTimeToTarget(targets.get(i), targets.get(j));
-                }
-            }
             cluster(10,2);
             currentCluster = findNextUnvisitedCluster(groupLocations);
-            computePathInCluster();
+            if(currentCluster == null)
+                path = new ArrayList<Integer>();
+            else
+                computePathInCluster();
         }
 
         else if(this.strategy== "clusteringWeightedGreedy"){
-            graph = new double[numTargets][numTargets];
-            for(int i = 0; i < numTargets; i++){
-                for(int j = 0; j < numTargets; j++){
-                    graph[i][j] = computeEstimatedTimeToTarget(targets.get(i), targets.get(j));
-                }
-            }
             cluster(10,2);
             currentCluster = findNextUnvisitedCluster(groupLocations);
-            path = currentCluster.clusterPoints;
+            path = currentCluster == null ? new ArrayList<Integer>() : currentCluster.clusterPoints;
         }
     }
 
+    // 2-opt and Or-opt on a path, as a round trip from the initial location. Anything that is not a target is dropped.
+    private ArrayList<Integer> improveTour(TourBuilder tours, List<Integer> order){
+        boolean[] seen = new boolean[numTargets];
+        int[] tour = new int[numTargets];
+        int size = 0;
+        for(int target: order){
+            if(target < 0 || target >= numTargets || seen[target]) continue;
+            seen[target] = true;
+            tour[size++] = target;
+        }
+        ArrayList<Integer> improved = new ArrayList<Integer>();
+        for(int target: new TourImprover(tours).improve(Arrays.copyOf(tour, size), TOUR_BUDGET_NS)){
+            improved.add(target);
+        }
+        return improved;
+    }
+
     public void computePathInCluster(){
         ArrayList<Integer> clusterPoints = currentCluster.clusterPoints;
         int numPoints = clusterPoints.size();
-
-        graph = new double[numPoints][numPoints];
+        int[] clusterTargets = new int[numPoints];
         for(int i = 0; i < numPoints; i++){
-            for(int j = 0; j < numPoints; j++){
-                int index1 = clusterPoints.get(i);
-                int index2 = clusterPoints.get(j);
-                graph[i][j] = computeEstimatedTimeToTarget(targets.get(index1), targets.get(index2));
-            }
+            clusterTargets[i] = clusterPoints.get(i);
         }
 
-        mst = new MST();
-        int[] parents = mst.primMST(graph);
-        buildTree(parents);
+        // Rooted at the last point of the cluster.
+        MST tree = MST.dense(numPoints, numPoints - 1, (u, v) -> targetTimes.time(clusterTargets[u], clusterTargets[v]));
         path = new ArrayList<Integer>();
-        tree.preorder(path);
-
-        for(int i = 0; i < path.size(); i++){
-            int clusterPointIndex = path.get(i);
-            int targetIndex = clusterPoints.get(clusterPointIndex);
-            path.set(i, targetIndex);
+        for(int clusterPointIndex: tree.preorder()){
+            path.add(clusterPoints.get(clusterPointIndex));
         }
     }
 
     public void cluster(int minNumElements, double maxDistance){
         clusters = new ArrayList<ClusterInfo>();
-        DBSCANClusterer clusterer = new DBSCANClusterer<Point>(targets,minNumElements,maxDistance, graph);
+        // maxDistance is in sailing time, no target further than that in a straight line at top speed is within it.
+        DBSCANClusterer clusterer = new DBSCANClusterer(targets, minNumElements, maxDistance,
+                maxDistance * MAX_SPEED, (u, v) -> targetTimes.time(u, v));
         ArrayList<ArrayList<Integer>> clustersList = clusterer.performClustering();
 
-        for(ArrayList<Integer> clusterPoints: clustersList){
-            Point mean = new Point(0,0);
-            for(int targetId: clusterPoints){
-                mean = Point.sum(mean, targets.get(targetId));
-            }
-            mean = Point.multiply(mean, 1/clusterPoints.size());
-            clusters.add(new ClusterInfo(clusterPoints, mean));
+        clusterTracker = new ClusterTracker(targets, clustersList, numPlayers, id);
+        for(int i = 0; i < clustersList.size(); i++){
+            ClusterInfo clustering = new ClusterInfo(clustersList.get(i), clusterTracker.centroid(i));
+            clustering.index = i;
+            clusters.add(clustering);
         }
     }
 
@@ -270,6 +302,9 @@ public class Player extends sail.sim.Player {
             case "mst":
                 move = mstMove(groupLocations, id, timeStep, timeRemainingMs);
                 break;
+            case "tour":
+                move = tourMove(groupLocations, id, timeStep, timeRemainingMs);
+                break;
             case "clusteringMst":
                 move = clusteringMstMove(groupLocations, id, timeStep, timeRemainingMs);
                 break;
@@ -352,13 +387,12 @@ public class Player extends sail.sim.Player {
             }
         }
 
+        // Not while going through path, that throws ConcurrentModificationException.
+        path.removeIf(targetId -> !ourUnvisitedTargets.contains(targetId));
+
         double maxWeight = Double.NEGATIVE_INFINITY;
         Point maxWeightTarget = this.initialLocation;  // If no unvisited targets, initial location will be our next target.
         for (int targetId : path) {
-            if(!ourUnvisitedTargets.contains(targetId)){
-                path.remove(Integer.valueOf(targetId));
-                continue;
-            }
             double ourTime = computeEstimatedTimeToTarget(targets.get(targetId));
             int score = computeRemainingScore(targetId);
             double othersTime = Utils.sum(computeUnvisitedPlayersTimeTo(groupLocations, targetId));
@@ -412,39 +446,26 @@ public class Player extends sail.sim.Player {
         return unitDirection;
     }
 
+    // The best cluster by the heuristic of ClusterTracker, only the one picked is walked to find its closest point.
     public ClusterInfo findNextUnvisitedCluster(List<Point> groupLocations){
-        ClusterInfo closestCluster = currentCluster;
-        double maxHeuristic = 0;
-        for(ClusterInfo clustering: clusters){
-            clustering = computeClosestClusterPoint(clustering);
-            clustering.clusterHeuristic = computeClusterHeuristic(clustering, groupLocations);
-
-            if(clustering.clusterHeuristic > maxHeuristic){
-                closestCluster = clustering;
-                maxHeuristic = clustering.clusterHeuristic;
-            }
+        int best = clusterTracker.best(groupLocations, travelTimes);
+        if(best < 0){
+            // We have been everywhere in all of them.
+            clusters.clear();
+            return currentCluster;
         }
 
-        clusters.remove(closestCluster);
-        return closestCluster;
-    }
-
-    public double computeClusterHeuristic(ClusterInfo clustering, List<Point> groupLocations){
-        double time = clustering.timeToCluster;
-        ArrayList<Integer> clusterPoints = clustering.clusterPoints;
-        Point mean = clustering.clusterMean;
-        double distanceFromMid = Point.getDistance(mean, new Point(5,5));
-        double heuristic = 0;
-
-        for(int targetId: clusterPoints){
-            int score = computeRemainingScore(targetId);
-            double othersTime = Utils.sum(computeUnvisitedPlayersTimeTo(groupLocations, targetId));
-
-            heuristic += score * othersTime;
+        ClusterInfo closestCluster = null;
+        for(ClusterInfo clustering: clusters){
+            if(clustering.index == best) closestCluster = clustering;
         }
+        clusterTracker.close(best);
+        clusters.remove(closestCluster);
 
-        heuristic = heuristic + 15*time + 50/distanceFromMid;
-        return heuristic;
+        closestCluster = computeClosestClusterPoint(closestCluster);
+        closestCluster.clusterMean = clusterTracker.centroid(best);
+        closestCluster.clusterHeuristic = clusterTracker.heuristic(best, groupLocations, travelTimes);
+        return closestCluster;
     }
 
     public ClusterInfo computeClosestClusterPoint(ClusterInfo clustering){
@@ -484,6 +505,27 @@ public class Player extends sail.sim.Player {
             nextTarget = targets.get(nextTargetIndex);
         }
 
+        return moveThrough(target, nextTarget, timeStep);
+    }
+
+    // The route of the optimizer, followed like mstMove follows path.
+    public Point tourMove(List<Point> groupLocations, int id, double timeStep, long timeRemainingMs){
+        if(optimizer == null)
+            return mstMove(groupLocations, id, timeStep, timeRemainingMs);
+
+        int count = optimizer.next(nextTargets);
+        if(count == 0){
+            Point direction = Point.getDirection(currentLocation,initialLocation);
+            return Point.getUnitVector(direction);
+        }
+
+        Point target = targets.get(nextTargets[0]);
+        Point nextTarget = count >= 2 ? targets.get(nextTargets[1]) : initialLocation;
+        return moveThrough(target, nextTarget, timeStep);
+    }
+
+    // Aims 10 meters past target, on the way to nextTarget.
+    private Point moveThrough(Point target, Point nextTarget, double timeStep){
         Point directionBetweenTargets = Point.getDirection(target,nextTarget);
         Point unitDirectionBetweenTargets = Point.getUnitVector(directionBetweenTargets);
         Point pointWithin10MetersDirection = Point.sum(target,Point.multiply(unitDirectionBetweenTargets,0.01));
@@ -552,7 +594,7 @@ public class Player extends sail.sim.Player {
             if (WG_CHECK_FOLLOWING_ENABLED && this.numTargets >= 500) {
                 for (int playerId = 0; playerId < this.numPlayers; ++playerId) {
                     if (playerId == this.id) continue;
-                    if (!this.playerVisitsByTarget.get(targetId).contains(playerId)) {
+                    if (!hasVisited(playerId, targetId)) {
                         Point playerLocation = groupLocations.get(playerId);
                         double playerTime = computeEstimatedTimeToTarget(playerLocation, targets.get(targetId));
                         if (ourTime == -1.0) ourTime = computeEstimatedTimeToTarget(targets.get(targetId));
@@ -598,39 +640,6 @@ public class Player extends sail.sim.Player {
         return computeNextDirection(nextTarget, timeStep);
     }
 
-    public void buildTree(int[] parents){
-        tree = new Tree();
-        int rootIndex = findRootIndexOfMST(parents);
-        tree.root = new Node(rootIndex);
-        tree.root.children = findChildren(rootIndex, parents);
-    }
-
-    public int findRootIndexOfMST(int[] parents){
-        for(int i = 0; i < numTargets; i++){
-            if(parents[i] == -1){
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    public ArrayList<Node> findChildren(int rootIndex, int[] parents){
-        ArrayList<Node> children = null;
-
-        for(int i = 0; i < parents.length; i++){
-            if(parents[i] == rootIndex){
-                Node child = new Node(i);
-                child.children = findChildren(i, parents);
-
-                if(children == null)
-                    children = new ArrayList<Node>();
-                children.add(child);
-            }
-        }
-
-        return children;
-    }
-
     private double computeWeightedTimeToOtherTargets(int targetId, List<Point> targets) {
         // It is weighted because it also takes into account the remaining score of those targets.
         double weightedTime = 1.0;
@@ -651,7 +660,7 @@ public class Player extends sail.sim.Player {
         Point target = this.targets.get(targetId);
         for (int playerId = 0; playerId < this.numPlayers; ++playerId) {
             if (playerId == this.id) continue; // Skip our own.
-            if (!this.playerVisitsByTarget.get(targetId).contains(playerId)) {
+            if (!hasVisited(playerId, targetId)) {
                 // This means that this player hasn't visited this target yet, so
                 // compute her time to target.
                 Point player = groupLocations.get(playerId);
@@ -662,7 +671,11 @@ public class Player extends sail.sim.Player {
     }
 
     private int computeRemainingScore(int targetId) {
-        return this.numPlayers - this.playerVisitsByTarget.get(targetId).size();
+        return this.numPlayers - (this.visits == null ? 0 : this.visits.visitCount(targetId));
+    }
+
+    private boolean hasVisited(int playerId, int targetId) {
+        return this.visits != null && this.visits.isVisited(playerId, targetId);
     }
 
     private double computeEstimatedTimeToTarget(Point target) {
@@ -670,21 +683,10 @@ public class Player extends sail.sim.Player {
     }
 
     private double computeEstimatedTimeToTarget(Point player, Point target) {
-        double distance = Point.getDistance(player, target);
-        Point direction = Point.getDirection(player, target);
-        double speed = Simulator.getSpeed(direction, windDirection);
-        return distance/speed;
+        return travelTimes.time(player, target);
     }
 
     private Point computeNextDirection(Point target, double timeStep) {
-        Point directionToTarget = Point.getDirection(this.currentLocation, target);
-        Point perpendicularLeftDirection = Point.rotateCounterClockwise(directionToTarget, Math.PI/2.0);
-        Point perpendicularRightDirection = Point.rotateCounterClockwise(directionToTarget, -Math.PI/2.0);
-        return findBestDirection(perpendicularLeftDirection, perpendicularRightDirection, target, 100, timeStep);
-    }
-
-    private Point findBestDirection(Point leftDirection, Point rightDirection, Point target, int numSteps,
-                                    double timeStep) {
         // First, check if the target is reachable in one time step from our current position.
         double currentDistanceToTarget = Point.getDistance(this.currentLocation, target);
         Point directionToTarget = Point.getDirection(this.currentLocation, target);
@@ -695,65 +697,50 @@ public class Player extends sail.sim.Player {
             return directionToTarget;
         }
 
-        // If that is not the case, choose the direction that will get us to a point where the time to reach
-        // the target is minimal, if going directly to the target.
-        double minTimeToTarget = Double.POSITIVE_INFINITY;
-        Point minTimeToTargetDirection = null;
-
-        double totalRadians = Point.angleBetweenVectors(leftDirection, rightDirection);
-        double radiansStep = totalRadians / (double) numSteps;
-        for (double i = 0.0; i < totalRadians; i+=radiansStep) {
-            Point direction = Point.rotateCounterClockwise(rightDirection, i);
-            Point expectedPosition = computeExpectedPosition(direction, timeStep);
-            Point nextDirection = Point.getDirection(expectedPosition, target);
-            double distance = Point.getDistance(expectedPosition, target);
-            double speed = Simulator.getSpeed(nextDirection, this.windDirection);
-            double timeToTarget = distance / speed;
-
-            if (timeToTarget < minTimeToTarget) {
-                minTimeToTargetDirection = direction;
-                minTimeToTarget = timeToTarget;
-            }
+        // If that is not the case, take the fastest heading there, a tack when the target is about
+        // straight down or up wind. Straight at it if the tack would take us off the board.
+        headingSolver.heading(directionToTarget.x, directionToTarget.y, scratch, 0);
+        computeExpectedPosition(scratch[0], scratch[1], timeStep, scratch, 2);
+        if (scratch[2] == this.currentLocation.x && scratch[3] == this.currentLocation.y) {
+            return directionToTarget;
         }
-
-        return minTimeToTargetDirection;
+        return new Point(scratch[0], scratch[1]);
     }
 
-    private Point computeExpectedPosition(Point moveDirection, double timeStep) {
-        Point unitMoveDirection = Point.getUnitVector(moveDirection);
-        double speed = Simulator.getSpeed(unitMoveDirection, this.windDirection);
-        Point distanceMoved = new Point(
-                unitMoveDirection.x * speed * timeStep,
-                unitMoveDirection.y * speed * timeStep
-        );
-        Point nextLocation = Point.sum(this.currentLocation, distanceMoved);
-        if (nextLocation.x < 0 || nextLocation.y > 10 || nextLocation.y < 0 || nextLocation.x > 10) {
-            return this.currentLocation;
-        }
-        return nextLocation;
+    // where moving along (dx, dy) for a time step takes us, written to out[at], out[at + 1]
+    private void computeExpectedPosition(double dx, double dy, double timeStep, double[] out, int at) {
+        PointMath.unit(dx, dy, out, at);
+        double ux = out[at], uy = out[at + 1];
+        double speed = speedModel.exactSpeed(ux, uy);
+        double x = this.currentLocation.x + ux * speed * timeStep;
+        double y = this.currentLocation.y + uy * speed * timeStep;
+        if (x < 0 || y > 10 || y < 0 || x > 10) {
+            x = this.currentLocation.x;
+            y = this.currentLocation.y;
+        }
+        out[at] = x;
+        out[at + 1] = y;
     }
 
     /**
-     * visitedTargets.get(i) is a set of targets that the ith player has visited.
+     * visits.isVisited(i, j) tells if the ith player has visited target j.
      */
     @Override
-    public void onMoveFinished(List<Point> groupLocations, Map<Integer, Set<Integer>> visitedTargets) {
-        // Let's use this information to prepare some convenient data structures:
-        //  - For every player, unvisited targets, with a special variable pointing to ours.
-        //  - For every target, players that have visited it. This will help compute potential score easily.
-        this.visitedTargets = visitedTargets;
-        this.ourVisitedTargets = new HashSet<Point>();
-
-        for (Integer playerId : visitedTargets.keySet()) {
-            Set<Integer> playerVisited = this.visitedTargets.get(playerId);
-            Set<Integer> playerUnvisited = this.unvisitedTargets.get(playerId);
-            playerUnvisited.removeAll(playerVisited);
-
-            for (Integer target : playerVisited) {
-                this.playerVisitsByTarget.get(target).add(playerId);
-                if (playerId == this.id) {
-                    ourVisitedTargets.add(this.targets.get(target));
-                }
+    public void onMoveFinished(List<Point> groupLocations, Visits visits) {
+        // Other players' visits are read straight from visits (see hasVisited and computeRemainingScore),
+        // we only keep our own unvisited targets and visited target locations handy, updated with
+        // the visits of this turn only.
+        this.visits = visits;
+        for (int k = 0; k < visits.turnVisitCount(); ++k) {
+            if (visits.turnVisitPlayer(k) != this.id) continue;
+            int target = visits.turnVisitTarget(k);
+            this.ourUnvisitedTargets.remove(target);
+            this.ourVisitedTargets.add(this.targets.get(target));
+            if (this.optimizer != null) this.optimizer.visited(target);
+        }
+        if (this.clusterTracker != null) {
+            for (int k = 0; k < visits.turnVisitCount(); ++k) {
+                this.clusterTracker.visited(visits.turnVisitPlayer(k), visits.turnVisitTarget(k));
             }
         }
     }
@@ -1,7 +1,9 @@
 package sail.g6;
 
+import sail.sim.HeadingSolver;
 import sail.sim.Point;
 import sail.sim.Simulator;
+import sail.sim.TravelTimes;
 import java.util.*;
 
 public class Player extends sail.sim.Player {
@@ -13,6 +15,9 @@ public class Player extends sail.sim.Player {
     int id;
     Point initial;
     Point wind;
+    HeadingSolver headingSolver;
+    TravelTimes travelTimes;
+    double[] heading = new double[2];
     int nextTarget = -1;
 
     // Oliver added these three attributes below. isVisited might be deprecated now.
@@ -26,6 +31,8 @@ public class Player extends sail.sim.Player {
         // you don't have to use seed unless you want it to 
         // be deterministic (wrt input randomness)
         wind = wind_direction;
+        headingSolver = new HeadingSolver(wind_direction);
+        travelTimes = new TravelTimes(headingSolver);
 
         double eps = 1.0;
         if (t >= cornerThreshold) {
@@ -118,23 +125,21 @@ public class Player extends sail.sim.Player {
         }
     }
 
+    // The fastest heading to nextLoc, one of the tacks when it is about straight down or up wind. Straight when
+    // nextLoc is within a step or the tack would take us too close to the edge.
     public Point findAngle(Point currentLoc, Point nextLoc, double dt) {
-        double min = 1e9;
-        Point result = nextLoc;
-        for (int i = 20; i < 160; i++) {
-            double angle = Math.PI * (i - 90) / 180;
-            Point direction = Point.getDirection(currentLoc, nextLoc);
-            Point rotation = Point.rotateCounterClockwise(direction, angle);
-            Point step = Point.multiply(rotation, dt);
-            Point median = Point.sum(currentLoc, step);
-            if (median.x < 0.1 || median.x > 9.9 || median.y < 0.1 || median.y > 9.9) continue;
-            double temp = getTrueWeight(currentLoc, median) + getTrueWeight(median, nextLoc);
-            if (temp < min) {
-                min = temp;
-                result = median;
-            }
+        Point direction = Point.getDirection(currentLoc, nextLoc);
+        if (Point.getNorm(direction) <= Simulator.getSpeed(direction, wind) * dt) {
+            return moveInPath(currentLoc, nextLoc);
+        }
+        headingSolver.heading(direction.x, direction.y, heading, 0);
+        Point result = new Point(heading[0], heading[1]);
+        Point step = Point.multiply(result, Simulator.getSpeed(result, wind) * dt);
+        Point median = Point.sum(currentLoc, step);
+        if (median.x < 0.1 || median.x > 9.9 || median.y < 0.1 || median.y > 9.9) {
+            return moveInPath(currentLoc, nextLoc);
         }
-        return moveInPath(currentLoc, result);
+        return result;
     }
 
     // Move from currentLoc to nextLoc.
@@ -142,19 +147,9 @@ public class Player extends sail.sim.Player {
         return Point.getDirection(currentLoc, nextLoc);
     }
 
-    // Gets the distance between 2 points scaled by the wind direction.
+    // Gets the least time between 2 points, tacking if that is faster.
     private double getTrueWeight(Point currentLoc, Point nextLoc) {
-        double dist = Point.getNorm(Point.getDirection(currentLoc, nextLoc));
-        double angle = Point.angleBetweenVectors(Point.getDirection(currentLoc, nextLoc), wind);
-        double speed = calcSpeed(angle);
-
-        return dist / speed;
-    }
-
-    // Gets the speed factor in the direction of the angle.
-    private double calcSpeed(double angle) {
-        Point p = new Point(2.5 * Math.cos(angle) - 0.5, 5 * Math.sin(angle));
-        return Point.getDistance(p, new Point(0, 0));
+        return travelTimes.time(currentLoc, nextLoc);
     }
 
     /**
@@ -0,0 +1,224 @@
+package sail.sim;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+* Keeps improving the route through the targets not visited yet for as long as
+* it runs, while the player reads the best one so far. Meant for a background
+* thread, in init:
+*   optimizer = new AnytimeOptimizer(start, targets, travelTimeMatrix(), travel_times, tour);
+*   startBackground(optimizer);
+* then in move head for optimizer.next(), and tell it optimizer.visited(target)
+* for every target visited.
+*
+* The route goes from the last target visited (the start before any) through
+* the others left and back to the start. TourImprover settles it, then it gets a
+* random double bridge kick (three stretches swapped round, which 2-opt and
+* Or-opt cannot undo one move at a time), is settled again and kept if that is
+* shorter: iterated local search, standing in for the deeper moves of
+* Lin-Kernighan. After PATIENCE kicks in a row that found nothing it waits for
+* the next visit, so a settled route costs no CPU.
+*
+* next, route and time never block, the best route is an immutable snapshot
+* replaced whole. visited can be called from any thread. What it finds depends
+* on how much CPU the thread gets, so a game that uses it is not repeatable.
+*/
+public final class AnytimeOptimizer implements Runnable {
+  // kicks in a row that found nothing before it waits for a visit
+  public static final int PATIENCE = 100;
+  // most a TourImprover run takes before visits are looked at again
+  private static final long SLICE_NS = 5000000;
+  // positions a kick spans at most, far apart stretches are seldom worth swapping
+  private static final int KICK_SPAN = 50;
+
+  private static final class Route {
+    final int[] order;
+    final double time;
+
+    Route(int[] order, double time) {
+      this.order = order;
+      this.time = time;
+    }
+  }
+
+  private final TravelTimeMatrix times;
+  private final double[] from_start, to_start;
+  private final int n;
+  private final AtomicIntegerArray visited;
+  // the last target visited, written before visit_count is bumped
+  private volatile int last = -1;
+  private final AtomicInteger visit_count = new AtomicInteger();
+  private volatile Route best;
+  private volatile boolean stopped = false;
+  private volatile Thread runner = null;
+  private final Random gen = new Random(1);
+  // the ends of the stretches the last kick moved
+  private final int[] kicked_ends = new int[6];
+
+  /**
+  * from_start and to_start as for TourBuilder, tour an order of the targets to
+  * start from, e.g. one TourBuilder made.
+  */
+  public AnytimeOptimizer(TravelTimeMatrix times, double[] from_start, double[] to_start, int[] tour) {
+    this.times = times;
+    this.from_start = from_start;
+    this.to_start = to_start;
+    n = times.size();
+    if(tour.length != n) {
+      throw new IllegalArgumentException("Tour of " + tour.length + " for " + n + " targets");
+    }
+    visited = new AtomicIntegerArray(n);
+    best = new Route(tour.clone(), time(-1, tour));
+  }
+
+  public AnytimeOptimizer(
+    Point start, List<Point> targets, TravelTimeMatrix times, TravelTimes travel_times, int[] tour
+  ) {
+    this(
+      times,
+      TourBuilder.fromStart(start, targets, travel_times),
+      TourBuilder.toStart(start, targets, travel_times),
+      tour
+    );
+  }
+
+  private double time(int from, int[] order) {
+    double total = 0;
+    int at = from;
+    for(int target : order) {
+      total += at < 0? from_start[target] : times.time(at, target);
+      at = target;
+    }
+    return total + (at < 0? 0 : to_start[at]);
+  }
+
+  public void visited(int target) {
+    if(visited.getAndSet(target, 1) == 1) return;
+    last = target;
+    visit_count.incrementAndGet();
+    Thread thread = runner;
+    if(thread != null) LockSupport.unpark(thread);
+  }
+
+  // the next target of the best route, -1 once every target is visited
+  public int next() {
+    for(int target : best.order) {
+      if(visited.get(target) == 0) return target;
+    }
+    return -1;
+  }
+
+  // the next out.length targets or fewer, returns how many
+  public int next(int[] out) {
+    int count = 0;
+    for(int target : best.order) {
+      if(count == out.length) break;
+      if(visited.get(target) == 0) out[count ++] = target;
+    }
+    return count;
+  }
+
+  // the targets left in the order of the best route, a copy
+  public int[] route() {
+    return unvisited(best.order);
+  }
+
+  // of the best route, from the target it starts at as of the last visit it knew of
+  public double time() {
+    return best.time;
+  }
+
+  // run returns soon after, so does it on an interrupt
+  public void stop() {
+    stopped = true;
+    Thread thread = runner;
+    if(thread != null) LockSupport.unpark(thread);
+  }
+
+  private int[] unvisited(int[] order) {
+    int[] left = new int[order.length];
+    int count = 0;
+    for(int target : order) {
+      if(visited.get(target) == 0) left[count ++] = target;
+    }
+    return count == left.length? left : Arrays.copyOf(left, count);
+  }
+
+  private boolean running() {
+    return !stopped && !Thread.currentThread().isInterrupted();
+  }
+
+  public void run() {
+    runner = Thread.currentThread();
+    int seen = -1, fails = 0;
+    TourBuilder tours = null;
+    TourImprover improver = null;
+    int[] current = null;
+    double current_time = 0;
+    double[] row = new double[n];
+    while(running()) {
+      int count = visit_count.get();
+      if(count != seen) {
+        // start over from where the boat is now
+        seen = count;
+        int from = last;
+        if(from >= 0) times.row(from, row);
+        tours = new TourBuilder(times, from < 0? from_start : row, to_start);
+        improver = new TourImprover(tours);
+        current = unvisited(best.order);
+        current_time = tours.time(current);
+        fails = 0;
+        while(running() && visit_count.get() == seen) {
+          int[] settled = improver.improve(current, SLICE_NS);
+          double settled_time = tours.time(settled);
+          if(settled_time >= current_time) break;
+          current = settled;
+          current_time = settled_time;
+        }
+        // a route from where the boat was is no good after another visit
+        if(visit_count.get() == seen) best = new Route(current, current_time);
+        continue;
+      }
+      if(fails >= PATIENCE || current.length < 8) {
+        LockSupport.park(this);
+        continue;
+      }
+      int[] settled = improver.improve(kick(current), kicked_ends, SLICE_NS);
+      double settled_time = tours.time(settled);
+      if(settled_time < current_time - 1e-9) {
+        current = settled;
+        current_time = settled_time;
+        if(visit_count.get() == seen) best = new Route(current, current_time);
+        fails = 0;
+      } else {
+        ++ fails;
+      }
+    }
+  }
+
+  // double bridge: a b c d becomes a c b d
+  private int[] kick(int[] order) {
+    int m = order.length;
+    int p = 1 + gen.nextInt(m - 3);
+    int q = p + 1 + gen.nextInt(Math.min(KICK_SPAN / 2, m - p - 2));
+    int r = q + 1 + gen.nextInt(Math.min(KICK_SPAN / 2, m - q - 1));
+    int[] kicked = new int[m];
+    int at = 0;
+    for(int i = 0 ; i < p; ++ i) kicked[at ++] = order[i];
+    for(int i = q ; i < r; ++ i) kicked[at ++] = order[i];
+    for(int i = p ; i < q; ++ i) kicked[at ++] = order[i];
+    for(int i = r ; i < m; ++ i) kicked[at ++] = order[i];
+    kicked_ends[0] = order[p - 1];
+    kicked_ends[1] = order[p];
+    kicked_ends[2] = order[q - 1];
+    kicked_ends[3] = order[q];
+    kicked_ends[4] = order[r - 1];
+    kicked_ends[5] = order[r];
+    return kicked;
+  }
+}
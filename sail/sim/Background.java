@@ -0,0 +1,128 @@
+package sail.sim;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+* The threads a player keeps running between its calls, see Player.startBackground.
+*
+* How they are charged: the CPU time a background thread uses comes out of the
+* budget of the player that started it, as the phase "background". Once a turn,
+* right before the player's move, the simulator takes whatever its threads used
+* since the last time, so time_remaining_ms in move already counts it. When the
+* player runs out of time, and at the end of the game, its threads are
+* interrupted. What they used until then is charged, a thread that ignores the
+* interrupt is left running as a daemon.
+*
+* CPU time rather than wall clock, so a thread waiting for work costs nothing.
+* Where the JVM cannot tell the CPU time of a thread, the wall clock time it has
+* been alive is charged instead. Threads started any other way are not counted
+* at all, so they are not allowed.
+*
+* The calls of the players are charged on the wall clock and background threads
+* compete with them for the cores: with fewer cores than busy threads they make
+* the calls of everybody slower. They run at the lowest priority, which may or
+* may not help depending on the OS.
+*/
+final class Background {
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private static final boolean cpu_time = cpuTime();
+  // how long stop waits for the threads to finish, all together
+  private static final long STOP_MS = 50;
+
+  private static final class Worker {
+    Thread thread;
+    final long started_ns = System.nanoTime();
+    // ns used when it finished, -1 while it runs
+    volatile long final_ns = -1;
+    long charged_ns = 0;
+  }
+
+  private final String group;
+  private final List<Worker> workers = new ArrayList<Worker>();
+  private boolean stopped = false;
+
+  Background(String group) {
+    this.group = group;
+  }
+
+  private static boolean cpuTime() {
+    if(!threads.isThreadCpuTimeSupported()) return false;
+    try {
+      if(!threads.isThreadCpuTimeEnabled()) threads.setThreadCpuTimeEnabled(true);
+      return threads.isCurrentThreadCpuTimeSupported();
+    } catch(UnsupportedOperationException | SecurityException e) {
+      return false;
+    }
+  }
+
+  synchronized Thread start(Runnable task) {
+    if(stopped) {
+      throw new IllegalStateException("Background work of " + group + " is over");
+    }
+    Worker worker = new Worker();
+    worker.thread = new Thread(() -> {
+      try {
+        task.run();
+      } catch(RuntimeException | Error e) {
+        System.err.println("Exception in background work of " + group);
+        e.printStackTrace();
+      } finally {
+        worker.final_ns = cpu_time?
+          threads.getCurrentThreadCpuTime() : System.nanoTime() - worker.started_ns;
+      }
+    }, "background-" + group);
+    worker.thread.setDaemon(true);
+    worker.thread.setPriority(Thread.MIN_PRIORITY);
+    workers.add(worker);
+    worker.thread.start();
+    return worker.thread;
+  }
+
+  private static long used(Worker worker) {
+    long ns = worker.final_ns;
+    if(ns >= 0) return ns;
+    ns = cpu_time?
+      threads.getThreadCpuTime(worker.thread.getId()) : System.nanoTime() - worker.started_ns;
+    if(ns >= 0) return ns;
+    // finished since final_ns was read, or not started yet
+    ns = worker.final_ns;
+    return ns >= 0? ns : worker.charged_ns;
+  }
+
+  // ns used since the last take, finished threads are dropped once charged
+  synchronized long take() {
+    long total = 0;
+    for(Iterator<Worker> it = workers.iterator(); it.hasNext(); ) {
+      Worker worker = it.next();
+      long ns = used(worker);
+      total += Math.max(0, ns - worker.charged_ns);
+      worker.charged_ns = Math.max(ns, worker.charged_ns);
+      if(worker.final_ns >= 0 && worker.charged_ns >= worker.final_ns) it.remove();
+    }
+    return total;
+  }
+
+  // interrupts every thread and waits a little for them, once, no new ones after this
+  synchronized void stop() {
+    if(stopped) return;
+    stopped = true;
+    for(Worker worker : workers) {
+      worker.thread.interrupt();
+    }
+    long deadline = System.nanoTime() + STOP_MS * 1000000;
+    for(Worker worker : workers) {
+      long left = deadline - System.nanoTime();
+      if(left <= 0) break;
+      try {
+        worker.thread.join(left / 1000000, (int) (left % 1000000));
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+  }
+}
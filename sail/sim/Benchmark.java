@@ -0,0 +1,411 @@
+package sail.sim;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+* Small self-contained benchmarks for the simulator internals.
+*
+* E.g: java sail.sim.Benchmark alloc -t 500 -dt 0.004 -n 6
+*
+* alloc: plays a game with dummy players and reports how many bytes the
+*        simulator thread allocated per turn.
+* timer: cost of handing an empty call to a player through each kind of Timer.
+* point: a player style direction sweep and a t x t distance table, once with
+*        the Point helpers and once with PointMath, in ns and bytes per sweep/row.
+* speed: checks SpeedModel against Simulator.getSpeed over random headings and
+*        winds and times both, fails if the tables are off by more than 2e-6.
+* tour:  TourBuilder constructions for t random targets, ms to build and the
+*        round trip time against going to the nearest target each time, then
+*        the same tours after TourImprover.
+* anytime: AnytimeOptimizer on a thread from an improved farthest insertion
+*        tour, its best route over time and the CPU it took to settle, then a
+*        boat following next() with the optimizer still running.
+*/
+public class Benchmark {
+  private static int t = 500;
+  private static double dt = 0.004;
+  private static int numgroups = 6;
+  private static long seed = 1234;
+  private static int rounds = 5;
+
+  public static void main(String[] args) throws Exception {
+    if(args.length == 0) {
+      throw new IllegalArgumentException("Missing benchmark name");
+    }
+    parseArgs(Arrays.copyOfRange(args, 1, args.length));
+    switch(args[0]) {
+      case "alloc":
+        alloc();
+        break;
+      case "timer":
+        timer();
+        break;
+      case "point":
+        point();
+        break;
+      case "speed":
+        speed();
+        break;
+      case "tour":
+        tour();
+        break;
+      case "anytime":
+        anytime();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown benchmark: " + args[0]);
+    }
+    System.exit(0);
+  }
+
+  // walks to the nearest unvisited target, then home, reusing the same direction objects
+  static class NearestPlayer extends sail.sim.Player {
+    private List<Point> targets;
+    private Map<Integer, Set<Integer>> visited_set;
+    private Point initial;
+
+    @Override
+    public Point chooseStartingLocation(Point wind_direction, Long seed, int t) {
+      Random gen = new Random(seed);
+      initial = new Point(gen.nextDouble()*10, gen.nextDouble()*10);
+      return initial;
+    }
+
+    @Override
+    public void init(List<Point> group_locations, List<Point> targets, int id) {
+      this.targets = targets;
+    }
+
+    @Override
+    public Point move(List<Point> group_locations, int id, double dt, long time_remaining_ms) {
+      Point me = group_locations.get(id);
+      Point best = initial;
+      double best_dist = Double.MAX_VALUE;
+      for(int i = 0 ; i < targets.size(); ++ i) {
+        if(visited_set != null && visited_set.get(id).contains(i)) continue;
+        double dist = Point.getDistance(me, targets.get(i));
+        if(dist < best_dist) {
+          best_dist = dist;
+          best = targets.get(i);
+        }
+      }
+      return Point.getDirection(me, best);
+    }
+
+    @Override
+    public void onMoveFinished(List<Point> group_locations, Map<Integer, Set<Integer>> visited_set) {
+      this.visited_set = visited_set;
+    }
+  }
+
+  private static void alloc() throws Exception {
+    com.sun.management.ThreadMXBean bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread_id = Thread.currentThread().getId();
+    String[] groups = new String[numgroups];
+    Arrays.fill(groups, "bench");
+    Timer[] timers = new Timer[numgroups];
+    for(int i = 0 ; i < numgroups; ++ i) {
+      timers[i] = Timer.dedicated();
+    }
+    System.out.println("t=" + t + " dt=" + dt + " players=" + numgroups);
+    // the first rounds warm up the JIT, the last one is reported
+    for(int round = 0 ; round < rounds; ++ round) {
+      Player[] players = new Player[numgroups];
+      for(int i = 0 ; i < numgroups; ++ i) {
+        players[i] = new NearestPlayer();
+      }
+      Simulator sim = new Simulator(groups, t, dt, Long.MAX_VALUE / 4, new NullPrintStream());
+      long before = bean.getThreadAllocatedBytes(thread_id);
+      long start = System.nanoTime();
+      GameResult result = sim.play(timers, players, seed + round);
+      long elapsed = System.nanoTime() - start;
+      long bytes = bean.getThreadAllocatedBytes(thread_id) - before;
+      System.out.printf(
+        "round %d: %d turns, %.1f bytes/turn, %.2f us/turn%n",
+        round, result.turns, bytes / (double) result.turns, elapsed / 1e3 / result.turns
+      );
+    }
+  }
+
+  private static void timer() throws Exception {
+    Callable<Object> task = () -> null;
+    int calls = 200000;
+    for(String kind : new String[] {"dedicated", "same-thread"}) {
+      Timer timer = kind.equals("dedicated")? Timer.dedicated() : Timer.sameThread();
+      for(int round = 0 ; round < rounds; ++ round) {
+        long start = System.nanoTime();
+        long charged = 0;
+        for(int i = 0 ; i < calls; ++ i) {
+          timer.call(task, 1_000_000_000L);
+          charged += timer.getElapsedNanos();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf(
+          "%s round %d: %.0f ns/call, %.0f ns/call charged to the player%n",
+          kind, round, elapsed / (double) calls, charged / (double) calls
+        );
+      }
+      timer.close();
+    }
+  }
+
+  // the sweep of g5's findBestDirection: 100 headings, where each one takes us and how long from there
+  private static double sweepPoint(Point from, Point target, Point wind) {
+    Point right = Point.rotateCounterClockwise(Point.getDirection(from, target), -Math.PI/2.0);
+    double best = Double.POSITIVE_INFINITY;
+    for(int k = 0 ; k < 100; ++ k) {
+      Point direction = Point.getUnitVector(Point.rotateCounterClockwise(right, k * Math.PI / 100));
+      double speed = Simulator.getSpeed(direction, wind);
+      Point next = Point.sum(from, new Point(direction.x * speed * dt, direction.y * speed * dt));
+      double time = Point.getDistance(next, target) / Simulator.getSpeed(Point.getDirection(next, target), wind);
+      if(time < best) best = time;
+    }
+    return best;
+  }
+
+  private static double sweepPointMath(Point from, Point target, Point wind, double[] scratch) {
+    PointMath.rotate(target.x - from.x, target.y - from.y, -Math.PI/2.0, scratch, 0);
+    double rx = scratch[0], ry = scratch[1];
+    double best = Double.POSITIVE_INFINITY;
+    for(int k = 0 ; k < 100; ++ k) {
+      PointMath.rotate(rx, ry, k * Math.PI / 100, scratch, 0);
+      PointMath.unit(scratch[0], scratch[1], scratch, 0);
+      double speed = Simulator.getSpeed(scratch[0], scratch[1], wind.x, wind.y);
+      double nx = from.x + scratch[0] * speed * dt, ny = from.y + scratch[1] * speed * dt;
+      double time = PointMath.distance(nx, ny, target.x, target.y)
+        / Simulator.getSpeed(target.x - nx, target.y - ny, wind.x, wind.y);
+      if(time < best) best = time;
+    }
+    return best;
+  }
+
+  private static void point() {
+    com.sun.management.ThreadMXBean bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread_id = Thread.currentThread().getId();
+    Random gen = new Random(seed);
+    Point wind = Point.getRandomPoint(gen);
+    List<Point> points = new ArrayList<Point>(t);
+    double[] xy = new double[2 * t];
+    for(int i = 0 ; i < t; ++ i) {
+      points.add(new Point(gen.nextDouble() * 10, gen.nextDouble() * 10));
+      xy[2*i] = points.get(i).x;
+      xy[2*i + 1] = points.get(i).y;
+    }
+    double[] scratch = new double[2];
+    double[] row = new double[t];
+    System.out.println("t=" + t + " dt=" + dt);
+    // the results are summed and printed so that the JIT cannot drop the work
+    double sink = 0;
+    for(int round = 0 ; round < rounds; ++ round) {
+      for(String kind : new String[] {"Point", "PointMath"}) {
+        boolean flat = kind.equals("PointMath");
+        long bytes = bean.getThreadAllocatedBytes(thread_id);
+        long start = System.nanoTime();
+        for(int i = 0 ; i < t; ++ i) {
+          Point from = points.get(i), target = points.get((i + 1) % t);
+          sink += flat? sweepPointMath(from, target, wind, scratch) : sweepPoint(from, target, wind);
+        }
+        long sweep_ns = System.nanoTime() - start;
+        long sweep_bytes = bean.getThreadAllocatedBytes(thread_id) - bytes;
+        bytes = bean.getThreadAllocatedBytes(thread_id);
+        start = System.nanoTime();
+        for(int i = 0 ; i < t; ++ i) {
+          for(int j = 0 ; j < t; ++ j) {
+            row[j] = flat? PointMath.distance(xy, i, j) : Point.getDistance(points.get(i), points.get(j));
+          }
+          sink += row[i];
+        }
+        long table_ns = System.nanoTime() - start;
+        long table_bytes = bean.getThreadAllocatedBytes(thread_id) - bytes;
+        System.out.printf(
+          "round %d %-9s: sweep %.0f ns %.0f bytes, distance row %.0f ns %.0f bytes%n",
+          round, kind, sweep_ns / (double) t, sweep_bytes / (double) t,
+          table_ns / (double) t, table_bytes / (double) t
+        );
+      }
+    }
+    System.out.println("(" + sink + ")");
+  }
+
+  private static void speed() {
+    Random gen = new Random(seed);
+    int calls = 1 << 20;
+    double[] xy = new double[2 * calls];
+    for(int i = 0 ; i < xy.length; ++ i) {
+      xy[i] = gen.nextDouble() * 20 - 10;
+    }
+    double table_error = 0, angle_error = 0, exact_error = 0, built_error = 0;
+    for(int w = 0 ; w < 16; ++ w) {
+      Point wind = Point.getRandomPoint(gen);
+      SpeedModel model = new SpeedModel(wind);
+      built_error = Math.max(built_error, model.maxTableError());
+      for(int i = 0 ; i < calls; ++ i) {
+        double x = xy[2*i], y = xy[2*i + 1];
+        double speed = Simulator.getSpeed(x, y, wind.x, wind.y);
+        table_error = Math.max(table_error, Math.abs(model.speed(x, y) - speed));
+        exact_error = Math.max(exact_error, Math.abs(model.exactSpeed(x, y) - speed));
+        double angle = Math.atan2(x*wind.y - y*wind.x, x*wind.x + y*wind.y);
+        angle_error = Math.max(angle_error, Math.abs(model.speedAtAngle(angle) - speed));
+      }
+    }
+    System.out.printf(
+      "max error against getSpeed: speed %.2e, speedAtAngle %.2e, exactSpeed %.2e (tables say %.2e)%n",
+      table_error, angle_error, exact_error, built_error
+    );
+    if(Math.max(table_error, angle_error) > 2e-6 || exact_error > 1e-12) {
+      throw new IllegalStateException("SpeedModel is off");
+    }
+    Point wind = Point.getRandomPoint(gen);
+    SpeedModel model = new SpeedModel(wind);
+    // the results are summed and printed so that the JIT cannot drop the work
+    double sink = 0;
+    for(int round = 0 ; round < rounds; ++ round) {
+      for(String kind : new String[] {"getSpeed", "exactSpeed", "speed"}) {
+        long start = System.nanoTime();
+        for(int i = 0 ; i < calls; ++ i) {
+          double x = xy[2*i], y = xy[2*i + 1];
+          sink += kind.equals("getSpeed")? Simulator.getSpeed(x, y, wind.x, wind.y) :
+            kind.equals("exactSpeed")? model.exactSpeed(x, y) : model.speed(x, y);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("round %d %-10s: %.1f ns/call%n", round, kind, elapsed / (double) calls);
+      }
+    }
+    System.out.println("(" + sink + ")");
+  }
+
+  private static void tour() {
+    Random gen = new Random(seed);
+    Point wind = Point.getRandomPoint(gen);
+    Point start = new Point(5, 5);
+    List<Point> targets = new ArrayList<Point>(t);
+    for(int i = 0 ; i < t; ++ i) {
+      targets.add(new Point(gen.nextDouble() * 10, gen.nextDouble() * 10));
+    }
+    TravelTimes travel_times = new TravelTimes(wind);
+    TravelTimeMatrix matrix = TravelTimeMatrix.build(targets, travel_times, false);
+    TourBuilder tours = new TourBuilder(start, targets, matrix, travel_times);
+    // nearest next, what the greedy players do
+    int[] greedy = new int[t];
+    boolean[] taken = new boolean[t];
+    int at = t;
+    for(int i = 0 ; i < t; ++ i) {
+      int best = -1;
+      for(int j = 0 ; j < t; ++ j) {
+        if(!taken[j] && (best < 0 || tours.time(at, j) < tours.time(at, best))) best = j;
+      }
+      taken[best] = true;
+      greedy[i] = at = best;
+    }
+    TourImprover improver = new TourImprover(tours);
+    for(int round = 0 ; round < rounds; ++ round) {
+      long start_ns = System.nanoTime();
+      int[] improved = improver.improve(greedy, Long.MAX_VALUE);
+      long improve_ns = System.nanoTime() - start_ns;
+      checkTour(improved, t);
+      System.out.printf(
+        "round %d %-18s: %.3f, improved %.3f in %.2f ms%n",
+        round, "nearest next", tours.time(greedy), tours.time(improved), improve_ns / 1e6
+      );
+      for(TourBuilder.Construction construction : TourBuilder.Construction.values()) {
+        start_ns = System.nanoTime();
+        int[] tour = tours.build(construction, Long.MAX_VALUE);
+        long elapsed = System.nanoTime() - start_ns;
+        checkTour(tour, t);
+        start_ns = System.nanoTime();
+        improved = improver.improve(tour, Long.MAX_VALUE);
+        improve_ns = System.nanoTime() - start_ns;
+        checkTour(improved, t);
+        if(tours.time(improved) > tours.time(tour) + 1e-9) {
+          throw new IllegalStateException("TourImprover made a tour longer");
+        }
+        System.out.printf(
+          "round %d %-18s: %.3f in %.2f ms, improved %.3f in %.2f ms%n",
+          round, construction, tours.time(tour), elapsed / 1e6, tours.time(improved), improve_ns / 1e6
+        );
+      }
+    }
+    // a budget too small for anything still gives a tour
+    int[] rushed = tours.build(TourBuilder.Construction.CHEAPEST_INSERTION, 0);
+    checkTour(rushed, t);
+    System.out.printf("no budget: %.3f%n", tours.time(rushed));
+  }
+
+  private static void anytime() throws Exception {
+    com.sun.management.ThreadMXBean bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Random gen = new Random(seed);
+    Point wind = Point.getRandomPoint(gen);
+    Point start = new Point(5, 5);
+    List<Point> targets = new ArrayList<Point>(t);
+    for(int i = 0 ; i < t; ++ i) {
+      targets.add(new Point(gen.nextDouble() * 10, gen.nextDouble() * 10));
+    }
+    TravelTimes travel_times = new TravelTimes(wind);
+    TravelTimeMatrix matrix = TravelTimeMatrix.build(targets, travel_times, false);
+    TourBuilder tours = new TourBuilder(start, targets, matrix, travel_times);
+    int[] tour = new TourImprover(tours).improve(
+      tours.build(TourBuilder.Construction.FARTHEST_INSERTION, Long.MAX_VALUE), Long.MAX_VALUE
+    );
+    System.out.printf("t=%d improved farthest insertion: %.3f%n", t, tours.time(tour));
+    AnytimeOptimizer optimizer = new AnytimeOptimizer(start, targets, matrix, travel_times, tour);
+    Thread thread = new Thread(optimizer, "anytime");
+    thread.setDaemon(true);
+    thread.start();
+    for(int i = 1 ; i <= 10; ++ i) {
+      Thread.sleep(100);
+      System.out.printf(
+        "%4d ms: %.3f, %.0f ms cpu, %s%n", i * 100, optimizer.time(),
+        bean.getThreadCpuTime(thread.getId()) / 1e6, thread.getState()
+      );
+    }
+    // sail the route, a target every ms
+    int[] sailed = new int[t];
+    long cpu = bean.getThreadCpuTime(thread.getId());
+    for(int i = 0 ; i < t; ++ i) {
+      sailed[i] = optimizer.next();
+      optimizer.visited(sailed[i]);
+      Thread.sleep(1);
+    }
+    checkTour(sailed, t);
+    if(optimizer.next() != -1) throw new IllegalStateException("Targets left after all were visited");
+    cpu = bean.getThreadCpuTime(thread.getId()) - cpu;
+    optimizer.stop();
+    thread.join(1000);
+    System.out.printf("sailed: %.3f, %.0f ms cpu for %d visits%n", tours.time(sailed), cpu / 1e6, t);
+  }
+
+  private static void checkTour(int[] tour, int t) {
+    boolean[] seen = new boolean[t];
+    for(int target : tour) {
+      if(seen[target]) throw new IllegalStateException("Target " + target + " twice in the tour");
+      seen[target] = true;
+    }
+    if(tour.length != t) throw new IllegalStateException("Tour of " + tour.length + " for " + t + " targets");
+  }
+
+  private static void parseArgs(String[] args) {
+    for(int i = 0; i < args.length; ++i) {
+      if (i + 1 >= args.length) {
+        throw new IllegalArgumentException("Missing value for " + args[i]);
+      }
+      if (args[i].equals("-t") || args[i].equals("--targets")) {
+        t = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-dt") || args[i].equals("--timestep")) {
+        dt = Double.parseDouble(args[++i]);
+      } else if (args[i].equals("-n") || args[i].equals("--players")) {
+        numgroups = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-S") || args[i].equals("--seed")) {
+        seed = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-r") || args[i].equals("--rounds")) {
+        rounds = Integer.parseInt(args[++i]);
+      } else {
+        throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package sail.sim;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+* Encodes GUI frames into one reused buffer, decoded by decode() in script.js.
+*
+* A keyframe carries the whole board, a delta only what changed since the last
+* frame encoded: players that moved, scores that changed and targets with new
+* visits. Every frame has a sequence number and a delta names the frame it
+* applies to, a viewer that does not have that one needs a keyframe.
+*
+* Format (little endian):
+*   both:  byte kind (0 key, 1 delta), byte 1 if the game ended, int seq, int refresh ms
+*   key:   short n, int t, n x (short length, utf-8 group name), double wind x/y,
+*          n x float initial x/y, t x float target x/y, n x double score,
+*          n x float position x/y, t x short visit count
+*   delta: int base seq, short moved, moved x (short player, float x/y),
+*          short scored, scored x (short player, double score),
+*          int visited, visited x (int target, short visit count)
+*/
+class FrameEncoder {
+  static final byte KEY = 0, DELTA = 1;
+
+  private final int numgroups, t;
+  private final byte[][] names;
+  private final Point wind_direction;
+  private final List<Point> inits, targets;
+  private final ByteBuffer buffer;
+  private final int refresh;
+  private int seq = 0;
+  // what the last frame said
+  private final float[] sent_x, sent_y;
+  private final double[] sent_scores;
+  private final int[] sent_visits;
+
+  FrameEncoder(
+    String[] groups,
+    List<Point> inits,
+    List<Point> targets,
+    Point wind_direction,
+    long gui_refresh
+  ) {
+    this.numgroups = groups.length;
+    this.t = targets.size();
+    this.names = new byte[numgroups][];
+    int names_size = 0;
+    for(int i = 0 ; i < numgroups; ++ i) {
+      names[i] = groups[i].getBytes(StandardCharsets.UTF_8);
+      names_size += 2 + names[i].length;
+    }
+    this.inits = inits;
+    this.targets = targets;
+    this.wind_direction = wind_direction;
+    this.refresh = (int) Math.max(-1, Math.min(Integer.MAX_VALUE, gui_refresh));
+    int key_size = 10 + 6 + names_size + 16 + numgroups * 24 + t * 10;
+    int delta_size = 10 + 4 + 2 + numgroups * 10 + 2 + numgroups * 10 + 4 + t * 6;
+    this.buffer = ByteBuffer.allocate(Math.max(key_size, delta_size)).order(ByteOrder.LITTLE_ENDIAN);
+    this.sent_x = new float[numgroups];
+    this.sent_y = new float[numgroups];
+    this.sent_scores = new double[numgroups];
+    this.sent_visits = new int[t];
+  }
+
+  // the buffer is only good until the next call
+  ByteBuffer keyframe(
+    boolean ended, double[] scores, double[] px, double[] py, int[] visit_counts
+  ) {
+    buffer.clear();
+    buffer.put(KEY).put((byte) (ended? 1 : 0)).putInt(++ seq).putInt(refresh);
+    buffer.putShort((short) numgroups).putInt(t);
+    for(byte[] name : names) {
+      buffer.putShort((short) name.length).put(name);
+    }
+    buffer.putDouble(wind_direction.x).putDouble(wind_direction.y);
+    for(Point p : inits) {
+      buffer.putFloat((float) p.x).putFloat((float) p.y);
+    }
+    for(Point p : targets) {
+      buffer.putFloat((float) p.x).putFloat((float) p.y);
+    }
+    for(int i = 0 ; i < numgroups; ++ i) {
+      buffer.putDouble(sent_scores[i] = scores[i]);
+    }
+    for(int i = 0 ; i < numgroups; ++ i) {
+      buffer.putFloat(sent_x[i] = (float) px[i]).putFloat(sent_y[i] = (float) py[i]);
+    }
+    for(int i = 0 ; i < t; ++ i) {
+      buffer.putShort((short) (sent_visits[i] = visit_counts[i]));
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  // changes since the last frame, whichever kind it was
+  ByteBuffer delta(
+    boolean ended, double[] scores, double[] px, double[] py, int[] visit_counts
+  ) {
+    buffer.clear();
+    int base = seq;
+    buffer.put(DELTA).put((byte) (ended? 1 : 0)).putInt(++ seq).putInt(refresh).putInt(base);
+    // counts are patched in once known
+    int at = buffer.position(), count = 0;
+    buffer.putShort((short) 0);
+    for(int i = 0 ; i < numgroups; ++ i) {
+      float x = (float) px[i], y = (float) py[i];
+      if(x == sent_x[i] && y == sent_y[i]) continue;
+      buffer.putShort((short) i).putFloat(sent_x[i] = x).putFloat(sent_y[i] = y);
+      ++ count;
+    }
+    buffer.putShort(at, (short) count);
+    at = buffer.position();
+    count = 0;
+    buffer.putShort((short) 0);
+    for(int i = 0 ; i < numgroups; ++ i) {
+      if(scores[i] == sent_scores[i]) continue;
+      buffer.putShort((short) i).putDouble(sent_scores[i] = scores[i]);
+      ++ count;
+    }
+    buffer.putShort(at, (short) count);
+    at = buffer.position();
+    count = 0;
+    buffer.putInt(0);
+    for(int i = 0 ; i < t; ++ i) {
+      int visit_count = visit_counts[i];
+      if(visit_count == sent_visits[i]) continue;
+      buffer.putInt(i).putShort((short) (sent_visits[i] = visit_count));
+      ++ count;
+    }
+    buffer.putInt(at, count);
+    buffer.flip();
+    return buffer;
+  }
+}
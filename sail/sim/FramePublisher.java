@@ -0,0 +1,135 @@
+package sail.sim;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+* Takes GUI snapshots from the game and publishes them from a thread of its own.
+*
+* offer copies the board into a slot of a small ring and returns, it never waits
+* for the publisher. When the ring is full the newest snapshot is overwritten, a
+* delta is taken against the last frame sent so nothing is lost but the in
+* between positions. The publisher encodes and hands frames to the server, at
+* most one every interval when there is one, and stops once it has sent what
+* was offered before close.
+*/
+class FramePublisher implements Runnable {
+  private static final int CAPACITY = 16;
+
+  private static final class Snapshot {
+    boolean ended;
+    final double[] scores, px, py;
+    final int[] visit_counts;
+
+    Snapshot(int numgroups, int t) {
+      scores = new double[numgroups];
+      px = new double[numgroups];
+      py = new double[numgroups];
+      visit_counts = new int[t];
+    }
+  }
+
+  private final HTTPServer server;
+  private final FrameEncoder encoder;
+  private final long interval_ns;
+  private final Runnable on_done;
+  private final Thread thread;
+  // snapshots head - 1 back to tail are waiting, all guarded by this
+  private final Snapshot[] ring = new Snapshot[CAPACITY];
+  private long head = 0, tail = 0;
+  private boolean closed = false;
+  // the publisher's own, swapped with the ring slot it takes
+  private Snapshot spare;
+
+  FramePublisher(
+    HTTPServer server,
+    FrameEncoder encoder,
+    int numgroups,
+    int t,
+    long interval_ms,
+    Runnable on_done
+  ) {
+    this.server = server;
+    this.encoder = encoder;
+    this.interval_ns = TimeUnit.MILLISECONDS.toNanos(Math.max(0, interval_ms));
+    this.on_done = on_done;
+    for(int i = 0 ; i < CAPACITY; ++ i) {
+      ring[i] = new Snapshot(numgroups, t);
+    }
+    spare = new Snapshot(numgroups, t);
+    thread = new Thread(this, "frames");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void offer(boolean ended, double[] scores, double[] px, double[] py, Visits visits) {
+    synchronized(this) {
+      if(closed) return;
+      Snapshot s;
+      if(head - tail == CAPACITY) {
+        // the viewer lags, fold this turn into the newest snapshot
+        s = ring[(int) ((head - 1) % CAPACITY)];
+      } else {
+        s = ring[(int) (head % CAPACITY)];
+        if(head ++ == tail) notify();
+      }
+      s.ended = ended;
+      System.arraycopy(scores, 0, s.scores, 0, s.scores.length);
+      System.arraycopy(px, 0, s.px, 0, s.px.length);
+      System.arraycopy(py, 0, s.py, 0, s.py.length);
+      for(int i = 0 ; i < s.visit_counts.length; ++ i) {
+        s.visit_counts[i] = visits.visitCount(i);
+      }
+    }
+  }
+
+  // no more snapshots, what was offered still goes out
+  void close() {
+    synchronized(this) {
+      closed = true;
+      notify();
+    }
+  }
+
+  // waits until everything offered was published
+  void await() throws InterruptedException {
+    thread.join();
+  }
+
+  public void run() {
+    try {
+      boolean first = true;
+      long next = System.nanoTime();
+      while(true) {
+        synchronized(this) {
+          while(head == tail && !closed) {
+            wait();
+          }
+          if(head == tail) return;
+          int slot = (int) (tail ++ % CAPACITY);
+          Snapshot s = ring[slot];
+          ring[slot] = spare;
+          spare = s;
+        }
+        // a new game, or somebody started watching
+        ByteBuffer frame = server.wantsKeyframe() || first?
+          encoder.keyframe(spare.ended, spare.scores, spare.px, spare.py, spare.visit_counts) :
+          encoder.delta(spare.ended, spare.scores, spare.px, spare.py, spare.visit_counts);
+        first = false;
+        server.publish(frame);
+        if(interval_ns > 0) {
+          next += interval_ns;
+          for(long left; (left = next - System.nanoTime()) > 0; ) {
+            LockSupport.parkNanos(left);
+          }
+          next = Math.max(next, System.nanoTime() - interval_ns);
+        }
+      }
+    } catch (InterruptedException e) {
+      // only a daemon going away
+    } finally {
+      if(on_done != null) on_done.run();
+    }
+  }
+}
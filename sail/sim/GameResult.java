@@ -0,0 +1,105 @@
+package sail.sim;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+* Outcome of a single game, as returned by the simulator.
+*/
+public class GameResult {
+  // where the players spent their time, indexes into phase_ns[player]
+  public static final int CHOOSE_START = 0, INIT = 1, MOVE = 2, MOVE_FINISHED = 3, BACKGROUND = 4;
+  public static final String[] PHASES = {
+    "chooseStartingLocation", "init", "move", "onMoveFinished", "background"
+  };
+
+  public final long seed;
+  public final int t;
+  public final double dt;
+  public final long time_limit;
+  public final String[] groups;
+  public final double[] scores;
+  // in ms, as reported so far, time_remaining_ns has the exact budget left
+  public final long[] time_remaining;
+  public final long[] time_remaining_ns;
+  public final long[][] phase_ns;
+  // indexes of the players that made it back home, empty if everyone timed out
+  public final List<Integer> finishers;
+  public final int turns;
+
+  public GameResult(
+    long seed,
+    int t,
+    double dt,
+    long time_limit,
+    String[] groups,
+    double[] scores,
+    long[] time_remaining_ns,
+    long[][] phase_ns,
+    List<Integer> finishers,
+    int turns
+  ) {
+    this.seed = seed;
+    this.t = t;
+    this.dt = dt;
+    this.time_limit = time_limit;
+    this.groups = groups;
+    this.scores = scores;
+    this.time_remaining_ns = time_remaining_ns;
+    this.phase_ns = phase_ns;
+    this.time_remaining = new long[time_remaining_ns.length];
+    for(int i = 0 ; i < time_remaining_ns.length; ++ i) {
+      this.time_remaining[i] = TimeUnit.NANOSECONDS.toMillis(time_remaining_ns[i]);
+    }
+    this.finishers = Collections.unmodifiableList(finishers);
+    this.turns = turns;
+  }
+
+  public static String csvHeader(int numgroups) {
+    return csvHeader(numgroups, false);
+  }
+
+  // with phase_times, every player also gets the ms spent in each phase
+  public static String csvHeader(int numgroups, boolean phase_times) {
+    StringBuilder buffer = new StringBuilder("seed,t,dt,tl,finishers");
+    for(int i = 0 ; i < numgroups; ++ i) {
+      buffer.append(",score_").append(i).append(",time_remaining_").append(i);
+    }
+    if(phase_times) {
+      for(int i = 0 ; i < numgroups; ++ i) {
+        for(String phase : PHASES) {
+          buffer.append(',').append(phase).append("_ms_").append(i);
+        }
+      }
+    }
+    return buffer.toString();
+  }
+
+  public String toCsv() {
+    return toCsv(false);
+  }
+
+  public String toCsv(boolean phase_times) {
+    StringBuilder buffer = new StringBuilder();
+    buffer.append(seed).append(',')
+      .append(t).append(',')
+      .append(dt).append(',')
+      .append(time_limit).append(',');
+    for(int i = 0 ; i < finishers.size(); ++ i) {
+      if(i > 0) buffer.append(';');
+      buffer.append(groups[finishers.get(i)]);
+    }
+    for(int i = 0 ; i < groups.length; ++ i) {
+      buffer.append(',').append(scores[i]).append(',').append(time_remaining[i]);
+    }
+    if(phase_times) {
+      for(int i = 0 ; i < groups.length; ++ i) {
+        for(long ns : phase_ns[i]) {
+          buffer.append(',').append(ns / 1e6);
+        }
+      }
+    }
+    return buffer.toString();
+  }
+}
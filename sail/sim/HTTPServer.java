@@ -2,136 +2,362 @@ package sail.sim;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.time.*;
 import java.time.format.*;
-import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+* Serves the GUI from a selector thread of its own.
+*
+* Static files are sent with FileChannel.transferTo. GET /frames is answered
+* with a chunked stream that never ends while the game runs, every published
+* frame is pushed to every such viewer as (int length, frame). A viewer starts
+* with the next keyframe, one that falls behind by more than MAX_BACKLOG bytes
+* loses its backlog and waits for a keyframe again. publish never blocks, so
+* the game does not wait for browsers.
+*/
+class HTTPServer implements Runnable {
+
+    private static final List<String> FILES = Arrays.asList(
+	"webpage.html", "script.js", "favicon.ico", "apple-touch-icon.png");
+
+    private static final int MAX_BACKLOG = 1 << 22;
+
+    private static final long CLOSE_TIMEOUT_MS = 1000;
+
+    private final File root;
+
+    private final ServerSocketChannel socket;
+
+    private final Selector selector;
+
+    private final Thread thread;
 
-class HTTPServer {
+    private final Queue<ByteBuffer> published = new ConcurrentLinkedQueue<ByteBuffer>();
 
-    private ServerSocket socket = null;
+    private final Set<Connection> viewers = new HashSet<Connection>();
 
-    private Socket connection = null;
+    // a viewer is waiting for a keyframe
+    private final AtomicBoolean keyframeWanted = new AtomicBoolean(false);
 
-    private byte[] buffer = new byte [8192];
+    private volatile boolean closing = false;
 
-    public HTTPServer() throws IOException
+    private final CountDownLatch firstViewer = new CountDownLatch(1);
+
+    private static final class Connection {
+	final SocketChannel channel;
+	final ByteBuffer request = ByteBuffer.allocate(8192);
+	final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+	long queued = 0;
+	FileChannel file = null;
+	long filePosition, fileEnd;
+	boolean viewer = false, synced = false, closeWhenSent = false;
+
+	Connection(SocketChannel channel) {
+	    this.channel = channel;
+	}
+    }
+
+    public HTTPServer(File root) throws IOException
     {
-	socket = new ServerSocket();
+	this.root = root;
+	selector = Selector.open();
+	socket = ServerSocketChannel.open();
 	socket.bind(null);
-	if (!socket.isBound())
-	    throw new NotYetBoundException();
+	socket.configureBlocking(false);
+	socket.register(selector, SelectionKey.OP_ACCEPT);
+	thread = new Thread(this, "http");
+	thread.setDaemon(true);
+	thread.start();
     }
 
     public int port()
     {
-	return socket == null ? -1 : socket.getLocalPort();
+	return socket.socket().getLocalPort();
+    }
+
+    // false if nobody is watching after that long
+    public boolean awaitViewer(long timeoutMillis) throws InterruptedException
+    {
+	return firstViewer.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // true once per viewer that joined since, the next frame should be a keyframe
+    public boolean wantsKeyframe()
+    {
+	return keyframeWanted.getAndSet(false);
     }
 
-    public void close() throws IOException
+    // the frame is copied, the buffer can be reused as soon as this returns
+    public void publish(ByteBuffer frame)
     {
-	if (connection != null)
-	    throw new ConnectionPendingException();
-	if (socket != null) {
-	    socket.close();
-	    socket = null;
+	if (closing) return;
+	byte[] size = (Integer.toHexString(4 + frame.remaining()) + "\r\n")
+	    .getBytes(StandardCharsets.US_ASCII);
+	ByteBuffer chunk = ByteBuffer.allocate(size.length + 6 + frame.remaining())
+	    .order(ByteOrder.LITTLE_ENDIAN);
+	chunk.put(size).putInt(frame.remaining()).put(frame).put((byte) '\r').put((byte) '\n');
+	chunk.flip();
+	published.add(chunk);
+	selector.wakeup();
+    }
+
+    // ends the streams, gives viewers a moment to get what they were sent and stops
+    public void close()
+    {
+	closing = true;
+	selector.wakeup();
+	try {
+	    thread.join(2 * CLOSE_TIMEOUT_MS);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
 	}
     }
 
-    public String request() throws IOException
+    public void run()
     {
-	if (connection != null)
-	    throw new ConnectionPendingException();
-	connection = socket.accept();
-	InputStream in = connection.getInputStream();
-	int ch, i = 0;
-	do {
-	    try {
-		ch = in.read();
-	    } catch (IOException e1) {
-		try {
-		    connection.close();
-		} catch (IOException e2) {}
-		connection = null;
-		throw e1;
+	long deadline = Long.MAX_VALUE;
+	try {
+	    while (deadline == Long.MAX_VALUE || System.nanoTime() - deadline < 0) {
+		selector.select(deadline == Long.MAX_VALUE ? 0 : 10);
+		Iterator <SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+		    SelectionKey key = keys.next();
+		    keys.remove();
+		    try {
+			if (!key.isValid()) continue;
+			if (key.isAcceptable()) accept();
+			else {
+			    if (key.isReadable()) read(key);
+			    if (key.isValid() && key.isWritable()) write(key);
+			}
+		    } catch (IOException e) {
+			close(key);
+		    }
+		}
+		for (ByteBuffer chunk; (chunk = published.poll()) != null; )
+		    push(chunk);
+		if (closing && deadline == Long.MAX_VALUE) {
+		    deadline = System.nanoTime()
+			+ TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MS);
+		    socket.close();
+		    for (Connection viewer : new ArrayList<Connection>(viewers)) {
+			SelectionKey key = viewer.channel.keyFor(selector);
+			viewer.closeWhenSent = true;
+			try {
+			    send(key, ByteBuffer.wrap(
+				"0\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+			} catch (IOException e) {
+			    close(key);
+			}
+		    }
+		}
+		if (closing && selector.keys().isEmpty()) break;
 	    }
-	    if (ch < 0 || i == buffer.length) {
-		try {
-		    connection.close();
-		} catch (IOException e) {}
-		connection = null;
-		throw new UnknownServiceException("Incomplete HTTP request");
+	} catch (IOException e) {
+	    System.err.println("HTTP server error: " + e.getMessage());
+	} finally {
+	    for (SelectionKey key : selector.keys())
+		close(key);
+	    try {
+		socket.close();
+		selector.close();
+	    } catch (IOException e) {}
+	}
+    }
+
+    private void accept() throws IOException
+    {
+	SocketChannel channel = socket.accept();
+	if (channel == null) return;
+	channel.configureBlocking(false);
+	channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+    }
+
+    private void read(SelectionKey key) throws IOException
+    {
+	Connection connection = (Connection) key.attachment();
+	if (!connection.request.hasRemaining())
+	    // a viewer has nothing more to say, anything else is an oversized request
+	    connection.request.clear();
+	if (connection.channel.read(connection.request) < 0) {
+	    close(key);
+	    return;
+	}
+	if (connection.viewer || connection.file != null || connection.closeWhenSent) return;
+	ByteBuffer request = connection.request;
+	int end = -1;
+	for (int i = 3 ; i < request.position() ; ++i)
+	    if (request.get(i) == '\n' && request.get(i - 1) == '\r'
+		&& request.get(i - 2) == '\n' && request.get(i - 3) == '\r') {
+		end = i;
+		break;
 	    }
-	    buffer[i++] = (byte) ch;
-	} while (i < 4 || buffer[i - 1] != '\n' || buffer[i - 2] != '\r'
-		 || buffer[i - 3] != '\n' || buffer[i - 4] != '\r');
-	for (i = 0 ; buffer[i] != '\r' ; ++i);
-	String line = new String(buffer, 0, i);
+	if (end < 0) {
+	    if (!request.hasRemaining()) reply(key, "400 Bad Request");
+	    return;
+	}
+	int i = 0;
+	while (request.get(i) != '\r') ++i;
+	String line = new String(request.array(), 0, i, StandardCharsets.US_ASCII);
 	String[] parts = line.split(" ");
 	if (parts.length != 3 || !parts[0].equals("GET")
 	    || !parts[1].startsWith("/")
-	    || !parts[2].equals("HTTP/1.1")) {
-	    try {
-		connection.close();
-	    } catch (IOException e) {}
-	    connection = null;
-	    throw new UnknownServiceException("Invalid HTTP request: " + line);
+	    || !parts[2].startsWith("HTTP/1.")) {
+	    reply(key, "400 Bad Request");
+	    return;
 	}
-	return parts[1].substring(1);
+	String path = parts[1].substring(1);
+	if (path.equals("")) path = "webpage.html";
+	if (path.equals("frames")) {
+	    connection.viewer = true;
+	    viewers.add(connection);
+	    keyframeWanted.set(true);
+	    firstViewer.countDown();
+	    send(key, header("200 OK", "application/octet-stream", -1));
+	} else if (FILES.contains(path)) {
+	    File file = new File(root, path);
+	    connection.file = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	    connection.filePosition = 0;
+	    connection.fileEnd = connection.file.size();
+	    connection.closeWhenSent = true;
+	    send(key, header("200 OK", type(path), connection.fileEnd));
+	} else
+	    reply(key, "404 Not Found");
     }
 
-    public void reply(File file) throws IOException
+    private static String type(String path)
+    {
+	if (path.endsWith(".html")) return "text/html; charset=utf-8";
+	if (path.endsWith(".js")) return "text/javascript";
+	if (path.endsWith(".png")) return "image/png";
+	if (path.endsWith(".ico")) return "image/x-icon";
+	return "application/octet-stream";
+    }
+
+    // length -1 for a chunked stream
+    private static ByteBuffer header(String status, String type, long length)
     {
-	if (connection == null)
-	    throw new NoConnectionPendingException();
-	FileInputStream in = new FileInputStream(file);
-	OutputStream out = connection.getOutputStream();
 	String date = ZonedDateTime.now(ZoneId.of("GMT")).format(
 								 DateTimeFormatter.RFC_1123_DATE_TIME);
-	String header = "HTTP/1.1 200 OK\r\n";
-	long length = file.length();
-	header += "Content-Length: " + length + "\r\n";
+	String header = "HTTP/1.1 " + status + "\r\n";
+	header += "Content-Type: " + type + "\r\n";
+	if (length < 0)
+	    header += "Transfer-Encoding: chunked\r\n";
+	else {
+	    header += "Content-Length: " + length + "\r\n";
+	    header += "Connection: close\r\n";
+	}
 	header += "Cache-Control: no-cache, no-store\r\n";
 	header += "Date: " + date + "\r\n\r\n";
-	try {
-	    out.write(header.getBytes());
-	    int bytes;
-	    while ((bytes = in.read(buffer)) >= 0) {
-		length -= bytes;
-		if (length < 0) break;
-		out.write(buffer, 0, bytes);
+	return ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void reply(SelectionKey key, String status) throws IOException
+    {
+	Connection connection = (Connection) key.attachment();
+	connection.closeWhenSent = true;
+	send(key, header(status, "text/plain", 0));
+    }
+
+    // hands a chunk to every viewer that can make sense of it
+    private void push(ByteBuffer chunk)
+    {
+	// the kind is the first byte of every frame, see FrameEncoder
+	boolean key = chunk.get(indexOfFrame(chunk)) == FrameEncoder.KEY;
+	for (Connection viewer : new ArrayList<Connection>(viewers)) {
+	    if (viewer.closeWhenSent) continue;
+	    if (!viewer.synced && !key) continue;
+	    if (viewer.queued > MAX_BACKLOG) {
+		// keep the chunk that is half way out, the stream must stay well formed
+		ByteBuffer head = viewer.output.peekFirst();
+		viewer.output.clear();
+		viewer.queued = 0;
+		if (head != null && head.position() > 0) {
+		    viewer.output.add(head);
+		    viewer.queued = head.remaining();
+		}
+		viewer.synced = false;
+		keyframeWanted.set(true);
+		if (!key) continue;
 	    }
-	    if (length != 0)
-		throw new IOException("File modified during send");
-	} finally {
-	    try {
-		in.close();
-	    } catch (IOException e) {}
+	    viewer.synced = true;
+	    SelectionKey selection = viewer.channel.keyFor(selector);
 	    try {
-		connection.close();
-	    } catch (IOException e) {}
-	    connection = null;
+		send(selection, chunk.duplicate());
+	    } catch (IOException e) {
+		close(selection);
+	    }
 	}
     }
 
-    public void reply(String content) throws IOException
+    // past the chunk size line and the frame length
+    private static int indexOfFrame(ByteBuffer chunk)
     {
-	if (connection == null)
-	    throw new NoConnectionPendingException();
-	OutputStream out = connection.getOutputStream();
-	String date = ZonedDateTime.now(ZoneId.of("GMT")).format(
-								 DateTimeFormatter.RFC_1123_DATE_TIME);
-	String header = "HTTP/1.1 200 OK\r\n";
-	header += "Content-Length: " + content.length() + "\r\n";
-	header += "Cache-Control: no-cache, no-store\r\n";
-	header += "Date: " + date + "\r\n\r\n";
-	try {
-	    out.write(header.getBytes());
-	    out.write(content.getBytes());
-	} finally {
+	int i = 0;
+	while (chunk.get(i) != '\n') ++i;
+	return i + 5;
+    }
+
+    private void send(SelectionKey key, ByteBuffer data) throws IOException
+    {
+	Connection connection = (Connection) key.attachment();
+	connection.output.add(data);
+	connection.queued += data.remaining();
+	write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException
+    {
+	Connection connection = (Connection) key.attachment();
+	while (!connection.output.isEmpty()) {
+	    ByteBuffer head = connection.output.peekFirst();
+	    int written = connection.channel.write(head);
+	    connection.queued -= written;
+	    if (head.hasRemaining()) {
+		key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		return;
+	    }
+	    connection.output.pollFirst();
+	}
+	if (connection.file != null) {
+	    connection.filePosition += connection.file.transferTo(
+		connection.filePosition, connection.fileEnd - connection.filePosition,
+		connection.channel);
+	    if (connection.filePosition < connection.fileEnd) {
+		key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		return;
+	    }
+	    connection.file.close();
+	    connection.file = null;
+	}
+	if (connection.closeWhenSent) {
+	    close(key);
+	    return;
+	}
+	key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void close(SelectionKey key)
+    {
+	Object attachment = key.attachment();
+	key.cancel();
+	if (attachment instanceof Connection) {
+	    Connection connection = (Connection) attachment;
+	    viewers.remove(connection);
+	    try {
+		if (connection.file != null) connection.file.close();
+	    } catch (IOException e) {}
 	    try {
-		connection.close();
+		connection.channel.close();
 	    } catch (IOException e) {}
-	    connection = null;
 	}
     }
 }
@@ -0,0 +1,196 @@
+package sail.sim;
+
+/**
+* The fastest way to sail a straight displacement, in O(1) without trigonometry.
+*
+* Put the boat's velocity for every heading on a plane, the speed being that of
+* Simulator.getSpeed. Mixing two headings (tacking) reaches anything on the segment
+* between their velocities, so the best average velocity along a bearing is where
+* the bearing leaves the convex hull of that curve. The curve is convex but for
+* two cones, around straight downwind and straight upwind, where the hull is a
+* segment between a pair of tacks symmetric about the wind. The tacks are where
+* c sqrt(25.25 + 2.5c - 18.75c^2), the speed along the wind for the cosine c of
+* the heading, is extreme: 75c^2 - 7.5c - 50.5 = 0. So downwind it is best to
+* tack at DOWNWIND_TACK either side of the wind, upwind at UPWIND_TACK either
+* side of straight into it, anywhere else straight at the target.
+*
+* The board is not taken into account, a tack can run into the edge.
+*
+* E.g. a player that does not keep state can sail
+*   solver.heading(target.x - me.x, target.y - me.y, out, 0)
+* every turn: the tack with more time left, or straight. The legs of a tack can
+* be sailed in any order in the same time, so it ends up zig zagging in on the
+* wind axis through the target.
+*/
+public final class HeadingSolver {
+  // roots of 75c^2 - 7.5c - 50.5 = 0
+  private static final double DOWNWIND_COS = (7.5 + Math.sqrt(15206.25)) / 150;
+  private static final double UPWIND_COS = (7.5 - Math.sqrt(15206.25)) / 150;
+
+  // angles of the tacks off the wind axis, 0.511337 and 0.688672 radians
+  public static final double DOWNWIND_TACK = Math.acos(DOWNWIND_COS);
+  public static final double UPWIND_TACK = Math.acos(-UPWIND_COS);
+
+  /**
+  * How to sail a displacement. The headings are unit vectors, the same when
+  * going straight. Tacking, the first is the one counter clockwise (left) of
+  * the wind axis, see tack.
+  */
+  public static final class Plan {
+    public double x1, y1, x2, y2;
+    // time to spend on each heading to cover the whole displacement
+    public double time1, time2;
+    public boolean tacking, upwind;
+
+    public double time() {
+      return time1 + time2;
+    }
+  }
+
+  private final double wx, wy;
+  // the tacks as unit vectors, downwind and upwind, left and right of the axis
+  private final double[] tacks = new double[8];
+  // the velocity on a tack along and across its axis
+  private final double down_along, down_across, up_along, up_across;
+
+  public HeadingSolver(Point wind_direction) {
+    this(wind_direction.x, wind_direction.y);
+  }
+
+  public HeadingSolver(double wx, double wy) {
+    double norm = Math.sqrt(wx*wx + wy*wy);
+    if(!(norm > 0)) {
+      throw new IllegalArgumentException("No wind");
+    }
+    this.wx = wx / norm;
+    this.wy = wy / norm;
+    double down_sin = Math.sqrt(1 - DOWNWIND_COS*DOWNWIND_COS);
+    double up_cos = -UPWIND_COS, up_sin = Math.sqrt(1 - UPWIND_COS*UPWIND_COS);
+    setTack(0, this.wx, this.wy, DOWNWIND_COS, down_sin);
+    setTack(2, this.wx, this.wy, DOWNWIND_COS, -down_sin);
+    setTack(4, -this.wx, -this.wy, up_cos, up_sin);
+    setTack(6, -this.wx, -this.wy, up_cos, -up_sin);
+    double down_speed = SpeedModel.speedForCos(DOWNWIND_COS);
+    double up_speed = SpeedModel.speedForCos(UPWIND_COS);
+    down_along = down_speed * DOWNWIND_COS;
+    down_across = down_speed * down_sin;
+    up_along = up_speed * up_cos;
+    up_across = up_speed * up_sin;
+  }
+
+  // the axis turned by the angle of that cosine and sine
+  private void setTack(int at, double ax, double ay, double cos, double sin) {
+    tacks[at] = ax*cos - ay*sin;
+    tacks[at + 1] = ay*cos + ax*sin;
+  }
+
+  private static int tackIndex(boolean upwind, boolean left) {
+    return (upwind? 4 : 0) + (left? 0 : 2);
+  }
+
+  /**
+  * Heading of a tack, counter clockwise (left) of the wind axis or not. The
+  * axis is the wind downwind, straight into the wind upwind.
+  */
+  public void tack(boolean upwind, boolean left, double[] out, int at) {
+    int i = tackIndex(upwind, left);
+    out[at] = tacks[i];
+    out[at + 1] = tacks[i + 1];
+  }
+
+  // speed on the tacks, the same either side
+  public double tackSpeed(boolean upwind) {
+    return SpeedModel.speedForCos(upwind? UPWIND_COS : DOWNWIND_COS);
+  }
+
+  // (dx, dy) against the wind, along and across it counter clockwise
+  private double along(double dx, double dy) {
+    return dx*wx + dy*wy;
+  }
+
+  private double across(double dx, double dy) {
+    return wx*dy - wy*dx;
+  }
+
+  // +1 in the downwind cone, -1 in the upwind one, 0 to go straight
+  private int cone(double along, double across) {
+    if(along > 0 && Math.abs(across) * down_along <= along * down_across) return 1;
+    if(along < 0 && Math.abs(across) * up_along <= -along * up_across) return -1;
+    return 0;
+  }
+
+  /**
+  * The fastest way to cover (dx, dy), into plan. Returns whether that is
+  * tacking.
+  */
+  public boolean plan(double dx, double dy, Plan plan) {
+    double along = along(dx, dy), across = across(dx, dy);
+    int cone = cone(along, across);
+    plan.tacking = cone != 0;
+    plan.upwind = cone < 0;
+    if(cone == 0) {
+      double norm = Math.sqrt(dx*dx + dy*dy);
+      if(norm == 0) {
+        plan.x1 = plan.y1 = plan.x2 = plan.y2 = 0;
+        plan.time1 = plan.time2 = 0;
+        return false;
+      }
+      plan.x1 = plan.x2 = dx / norm;
+      plan.y1 = plan.y2 = dy / norm;
+      plan.time1 = norm / SpeedModel.speedForCos(along / norm);
+      plan.time2 = 0;
+      return false;
+    }
+    boolean upwind = cone < 0;
+    int left = tackIndex(upwind, true), right = tackIndex(upwind, false);
+    plan.x1 = tacks[left];
+    plan.y1 = tacks[left + 1];
+    plan.x2 = tacks[right];
+    plan.y2 = tacks[right + 1];
+    // along the axis both tacks make the same way, across they cancel out
+    if(upwind) {
+      along = -along;
+      across = -across;
+    }
+    double a = along / (upwind? up_along : down_along);
+    double b = across / (upwind? up_across : down_across);
+    plan.time1 = Math.max(0, (a + b) / 2);
+    plan.time2 = Math.max(0, (a - b) / 2);
+    return true;
+  }
+
+  // the time plan would take, without filling one in
+  public double time(double dx, double dy) {
+    double along = along(dx, dy), across = across(dx, dy);
+    switch(cone(along, across)) {
+      case 1:
+        return along / down_along;
+      case -1:
+        return -along / up_along;
+      default:
+        double norm = Math.sqrt(dx*dx + dy*dy);
+        return norm == 0? 0 : norm / SpeedModel.speedForCos(along / norm);
+    }
+  }
+
+  /**
+  * Where to head now to cover (dx, dy) as fast as possible, into out[at],
+  * out[at + 1]: straight, or the tack of the plan with more time left.
+  * (0, 0) for no displacement.
+  */
+  public void heading(double dx, double dy, double[] out, int at) {
+    double along = along(dx, dy), across = across(dx, dy);
+    int cone = cone(along, across);
+    if(cone == 0) {
+      double norm = Math.sqrt(dx*dx + dy*dy);
+      out[at] = norm == 0? 0 : dx / norm;
+      out[at + 1] = norm == 0? 0 : dy / norm;
+      return;
+    }
+    // the tack on the side of the target has more to do, upwind the sides swap with the axis
+    boolean left = cone > 0? across >= 0 : across <= 0;
+    int i = tackIndex(cone < 0, left);
+    out[at] = tacks[i];
+    out[at + 1] = tacks[i + 1];
+  }
+}
@@ -6,9 +6,40 @@ import java.util.Map;
 import java.util.Set;
 
 abstract public class Player{
+    // the game's, set by the simulator before init
+    TravelTimeMatrix travelTimeMatrix;
+    // this player's, set by the simulator before init
+    Background background;
+
     public Player() {
     }
 
+    /**
+    * Least sailing times between the targets of this game, by target index.
+    * Built by the simulator before init, on nobody's clock, the same one for
+    * every player.
+    */
+    protected final TravelTimeMatrix travelTimeMatrix() {
+        if (travelTimeMatrix == null) {
+            throw new IllegalStateException("The targets are only known from init on");
+        }
+        return travelTimeMatrix;
+    }
+
+    /**
+    * Runs task on a thread of its own that keeps going between calls, from init
+    * on, e.g. an AnytimeOptimizer. The CPU time it uses is charged to this player
+    * once a turn, before move, and it is interrupted once the player is out of
+    * time or the game is over. See Background for the details, threads started
+    * any other way are not allowed.
+    */
+    protected final Thread startBackground(Runnable task) {
+        if (background == null) {
+            throw new IllegalStateException("Background work can only start from init on");
+        }
+        return background.start(task);
+    }
+
     /**
     *   Called at the start
     * @param wind_direction is a unit vector in the direction of wind
@@ -30,6 +61,17 @@ abstract public class Player{
     * Called after everyone has moved
     * @param visited_set.get(i) stores the targets that the ith player has visited.
     */
-    public abstract void onMoveFinished(List<Point> group_locations, Map<Integer, Set<Integer>> visited_set);
+    public void onMoveFinished(List<Point> group_locations, Map<Integer, Set<Integer>> visited_set) {
+    }
+
+    /**
+    * Called after everyone has moved, this is the one the simulator calls.
+    * By default it hands visits.asMap() to the method above, players can override
+    * this one instead to use the bitset queries directly, visits.turnVisitCount()
+    * and friends give just the visits of the turn that finished.
+    */
+    public void onMoveFinished(List<Point> group_locations, Visits visits) {
+        onMoveFinished(group_locations, visits.asMap());
+    }
 
 }
\ No newline at end of file
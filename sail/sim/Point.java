@@ -2,6 +2,7 @@ package sail.sim;
 import java.io.Serializable;
 import java.util.Random;
 
+// every helper here returns a new Point, PointMath has them on plain doubles
 public class Point implements Serializable {
     public final double x;
     public final double y;
@@ -19,7 +20,7 @@ public class Point implements Serializable {
 
     @Override
     public int hashCode() {
-    	return new Double(x * 10000 + y).hashCode();
+    	return Double.hashCode(x * 10000 + y);
     }
 
     public static double angleBetweenVectors(Point p1, Point p2) {
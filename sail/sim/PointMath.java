@@ -0,0 +1,104 @@
+package sail.sim;
+
+/**
+* The Point helpers on plain doubles, for code that runs every turn.
+*
+* Nothing here allocates. A result with two coordinates is written into a
+* double[] at out[at] (x) and out[at + 1] (y). Coordinate arrays are interleaved,
+* point i of xy is (xy[2*i], xy[2*i + 1]). Results are the same doubles the
+* matching Point methods give.
+*
+* E.g. a step of length d from (x, y) towards (tx, ty):
+*   PointMath.unit(tx - x, ty - y, out, 0);
+*   x += out[0] * d; y += out[1] * d;
+*/
+public final class PointMath {
+  private PointMath() {
+  }
+
+  public static double distance(double x1, double y1, double x2, double y2) {
+    return Math.sqrt((x1 - x2)*(x1 - x2) + (y1 - y2)*(y1 - y2));
+  }
+
+  public static double distanceSquared(double x1, double y1, double x2, double y2) {
+    return (x1 - x2)*(x1 - x2) + (y1 - y2)*(y1 - y2);
+  }
+
+  public static double distance(double[] xy, int i, int j) {
+    return distance(xy[2*i], xy[2*i + 1], xy[2*j], xy[2*j + 1]);
+  }
+
+  public static double distanceSquared(double[] xy, int i, int j) {
+    return distanceSquared(xy[2*i], xy[2*i + 1], xy[2*j], xy[2*j + 1]);
+  }
+
+  public static double distance(double[] xy, int i, double x, double y) {
+    return distance(xy[2*i], xy[2*i + 1], x, y);
+  }
+
+  // index of the point of xy[0 .. 2*count) closest to (x, y), -1 if there is none
+  public static int nearest(double[] xy, int count, double x, double y) {
+    int best = -1;
+    double best_d2 = Double.POSITIVE_INFINITY;
+    for(int i = 0 ; i < count; ++ i) {
+      double d2 = distanceSquared(xy[2*i], xy[2*i + 1], x, y);
+      if(d2 < best_d2) {
+        best_d2 = d2;
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  public static double norm(double x, double y) {
+    return Math.hypot(x, y);
+  }
+
+  public static double dot(double x1, double y1, double x2, double y2) {
+    return x1*x2 + y1*y2;
+  }
+
+  // z of the cross product, > 0 if the second vector is counter clockwise of the first
+  public static double cross(double x1, double y1, double x2, double y2) {
+    return x1*y2 - y1*x2;
+  }
+
+  // counter clockwise from the first vector to the second, in [0, 2pi), as Point.angleBetweenVectors
+  public static double angleBetween(double x1, double y1, double x2, double y2) {
+    double angle = Math.atan2(cross(x1, y1, x2, y2), dot(x1, y1, x2, y2));
+    if(angle < 0) angle += 2*Math.PI;
+    return angle;
+  }
+
+  // angle in radian, counter clockwise
+  public static void rotate(double x, double y, double angle, double[] out, int at) {
+    double cos = Math.cos(angle), sin = Math.sin(angle);
+    out[at] = x*cos - y*sin;
+    out[at + 1] = y*cos + x*sin;
+  }
+
+  public static void unit(double x, double y, double[] out, int at) {
+    double norm = Math.hypot(x, y);
+    out[at] = x / norm;
+    out[at + 1] = y / norm;
+  }
+
+  /**
+  * How far along the segment (sx, sy) -> (ex, ey) it enters the circle of radius
+  * r around (cx, cy), as a fraction of the segment in [0, 1], -1 if it does not.
+  * A segment that starts inside the circle does not enter it.
+  */
+  public static double segmentCircleEntry(
+    double sx, double sy, double ex, double ey, double cx, double cy, double r
+  ) {
+    double dx = ex - sx, dy = ey - sy;
+    double fx = sx - cx, fy = sy - cy;
+    double a = dx*dx + dy*dy;
+    double b = 2 * (fx*dx + fy*dy);
+    double c = (fx*fx + fy*fy) - r*r;
+    double discr = b*b - 4*a*c;
+    if(discr < 0) return -1;
+    double t1 = (-b - Math.sqrt(discr))/(2*a);
+    return t1 >= 0 && t1 <= 1? t1 : -1;
+  }
+}
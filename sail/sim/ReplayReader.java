@@ -0,0 +1,320 @@
+package sail.sim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+* Reads a replay written with --replay and rebuilds the game at any turn.
+*
+* The file is memory mapped and every turn record has the same size, so looking
+* at a turn is O(1) whatever the length of the game, and only the pages actually
+* read are loaded. stateAt starts from the last keyframe before the turn.
+*
+* Format (little endian):
+*   header:    "SAILRPL1", int version, long seed, int t, double dt, long time limit (ms),
+*              int n, n x (short length, utf-8 group name), double wind x/y,
+*              n x double initial x/y, t x double target x/y,
+*              n x (long chooseStartingLocation ns, long init ns), int keyframe interval
+*   turns:     one record per turn, 4 + 24n bytes: int index of the first visit of the
+*              turn, n x (float direction x/y, float position x/y after the turn,
+*              long ns charged for move, onMoveFinished and background work)
+*   visits:    (int player, int target, double points), in scoring order
+*   keyframes: one every keyframe interval turns, the state at the end of that turn:
+*              int visits so far, n x double score, n x ceil(t/64) x long visited bitset
+*   trailer:   long turns offset, int turns, long visits offset, int visits,
+*              long keyframes offset, int keyframes, byte 1 if the game ended,
+*              then if it did: int finishers, finishers x int, n x (double score,
+*              long time remaining ns, 5 x long ns per phase as in GameResult.PHASES)
+*   footer:    long trailer offset, "SAILRPL1"
+*
+* Turns are numbered from 1, turn 0 is the state before the first move.
+*
+* E.g: java sail.sim.ReplayReader game.replay 1000
+*/
+public class ReplayReader {
+  public final long seed;
+  public final int t;
+  public final double dt;
+  public final long time_limit;
+  public final String[] groups;
+  public final Point wind_direction;
+  public final List<Point> initial_locations;
+  public final List<Point> targets;
+  // ns spent in chooseStartingLocation and init, per player
+  public final long[] start_ns, init_ns;
+  public final int keyframe_interval;
+
+  private final ByteBuffer data;
+  private final int numgroups;
+  private final int words;
+  private final int record_size, keyframe_size;
+  private final int turns_offset, visits_offset, keyframes_offset;
+  private final int turns, visits, keyframes;
+  private final List<Integer> finishers = new ArrayList<Integer>();
+  private double[] final_scores;
+  private long[] time_remaining_ns;
+  private long[][] phase_ns;
+
+  public static ReplayReader open(String file) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(file))) {
+      if(channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Replay too large: " + file);
+      }
+      // the mapping outlives the channel
+      ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new ReplayReader(data.order(ByteOrder.LITTLE_ENDIAN));
+    }
+  }
+
+  private ReplayReader(ByteBuffer data) throws IOException {
+    this.data = data;
+    if(data.limit() < 12 || data.getLong() != ReplayWriter.MAGIC) {
+      throw new IOException("Not a replay");
+    }
+    int version = data.getInt();
+    if(version != ReplayWriter.VERSION) {
+      throw new IOException("Unsupported replay version " + version);
+    }
+    seed = data.getLong();
+    t = data.getInt();
+    dt = data.getDouble();
+    time_limit = data.getLong();
+    numgroups = data.getInt();
+    groups = new String[numgroups];
+    for(int i = 0 ; i < numgroups; ++ i) {
+      byte[] name = new byte[data.getShort()];
+      data.get(name);
+      groups[i] = new String(name, StandardCharsets.UTF_8);
+    }
+    wind_direction = new Point(data.getDouble(), data.getDouble());
+    initial_locations = Collections.unmodifiableList(readPoints(numgroups));
+    targets = Collections.unmodifiableList(readPoints(t));
+    start_ns = new long[numgroups];
+    init_ns = new long[numgroups];
+    for(int i = 0 ; i < numgroups; ++ i) {
+      start_ns[i] = data.getLong();
+      init_ns[i] = data.getLong();
+    }
+    keyframe_interval = data.getInt();
+    words = (t + 63) >>> 6;
+    record_size = ReplayWriter.recordSize(numgroups);
+    keyframe_size = ReplayWriter.keyframeSize(numgroups, t);
+
+    int footer = data.limit() - 16;
+    if(footer < data.position() || data.getLong(footer + 8) != ReplayWriter.MAGIC) {
+      throw new IOException("Replay was never closed, the simulator probably died");
+    }
+    data.position((int) data.getLong(footer));
+    turns_offset = (int) data.getLong();
+    turns = data.getInt();
+    visits_offset = (int) data.getLong();
+    visits = data.getInt();
+    keyframes_offset = (int) data.getLong();
+    keyframes = data.getInt();
+    if(data.get() != 0) readEnd();
+  }
+
+  private List<Point> readPoints(int count) {
+    List<Point> points = new ArrayList<Point>(count);
+    for(int i = 0 ; i < count; ++ i) {
+      points.add(new Point(data.getDouble(), data.getDouble()));
+    }
+    return points;
+  }
+
+  private void readEnd() {
+    int count = data.getInt();
+    for(int i = 0 ; i < count; ++ i) {
+      finishers.add(data.getInt());
+    }
+    final_scores = new double[numgroups];
+    time_remaining_ns = new long[numgroups];
+    phase_ns = new long[numgroups][GameResult.PHASES.length];
+    for(int i = 0 ; i < numgroups; ++ i) {
+      final_scores[i] = data.getDouble();
+      time_remaining_ns[i] = data.getLong();
+      for(int k = 0 ; k < GameResult.PHASES.length; ++ k) {
+        phase_ns[i][k] = data.getLong();
+      }
+    }
+  }
+
+  public int numPlayers() {
+    return numgroups;
+  }
+
+  public int turnCount() {
+    return turns;
+  }
+
+  // false if the game was cut short, e.g. a game that threw
+  public boolean isComplete() {
+    return final_scores != null;
+  }
+
+  private int recordOffset(int turn) {
+    if(turn < 1 || turn > turns) throw new IndexOutOfBoundsException("turn " + turn);
+    return turns_offset + (turn - 1) * record_size;
+  }
+
+  private int playerOffset(int turn, int player) {
+    if(player < 0 || player >= numgroups) throw new IndexOutOfBoundsException("player " + player);
+    return recordOffset(turn) + 4 + player * 24;
+  }
+
+  /**
+  * The records of turns from..to (both included) as they are in the file, see
+  * the format above. Nothing is copied.
+  */
+  public ByteBuffer turnRecords(int from, int to) {
+    if(from > to) throw new IllegalArgumentException(from + " > " + to);
+    ByteBuffer range = data.duplicate();
+    range.position(recordOffset(from)).limit(recordOffset(to) + record_size);
+    return range.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  // the direction the player asked for, (0, 0) if it did not move
+  public float directionX(int turn, int player) {
+    return data.getFloat(playerOffset(turn, player));
+  }
+
+  public float directionY(int turn, int player) {
+    return data.getFloat(playerOffset(turn, player) + 4);
+  }
+
+  // where the player was at the end of the turn
+  public double x(int turn, int player) {
+    return turn == 0? initial_locations.get(player).x : data.getFloat(playerOffset(turn, player) + 8);
+  }
+
+  public double y(int turn, int player) {
+    return turn == 0? initial_locations.get(player).y : data.getFloat(playerOffset(turn, player) + 12);
+  }
+
+  public long chargedNanos(int turn, int player) {
+    return data.getLong(playerOffset(turn, player) + 16);
+  }
+
+  // index of the first visit of the turn, turn 0 has none
+  private int firstVisit(int turn) {
+    if(turn == 0) return 0;
+    return data.getInt(recordOffset(turn));
+  }
+
+  // index of the first visit after the turn
+  private int endVisit(int turn) {
+    return turn == turns? visits : firstVisit(turn + 1);
+  }
+
+  public int visitCount(int turn) {
+    return endVisit(turn) - firstVisit(turn);
+  }
+
+  private int visitOffset(int turn, int k) {
+    if(k < 0 || k >= visitCount(turn)) throw new IndexOutOfBoundsException("visit " + k);
+    return visits_offset + (firstVisit(turn) + k) * 16;
+  }
+
+  public int visitPlayer(int turn, int k) {
+    return data.getInt(visitOffset(turn, k));
+  }
+
+  public int visitTarget(int turn, int k) {
+    return data.getInt(visitOffset(turn, k) + 4);
+  }
+
+  public double visitPoints(int turn, int k) {
+    return data.getDouble(visitOffset(turn, k) + 8);
+  }
+
+  public List<Integer> finishers() {
+    return Collections.unmodifiableList(finishers);
+  }
+
+  public double[] finalScores() {
+    return final_scores == null? null : final_scores.clone();
+  }
+
+  public long[] timeRemainingNanos() {
+    return time_remaining_ns == null? null : time_remaining_ns.clone();
+  }
+
+  public long[][] phaseNanos() {
+    return phase_ns;
+  }
+
+  /**
+  * The game as it was at the end of a turn, the visits of that turn are the
+  * last turn visits of state.visits.
+  */
+  public State stateAt(int turn) {
+    if(turn < 0 || turn > turns) throw new IndexOutOfBoundsException("turn " + turn);
+    State state = new State(turn);
+    for(int i = 0 ; i < numgroups; ++ i) {
+      state.x[i] = x(turn, i);
+      state.y[i] = y(turn, i);
+    }
+    // keyframe k is the end of turn (k + 1) * keyframe_interval, take the last one
+    // before the turn so that the visits of the turn itself are replayed
+    int k = turn == 0? -1 : Math.min((turn - 1) / keyframe_interval, keyframes) - 1;
+    int from = 0;
+    if(k >= 0) {
+      int offset = keyframes_offset + k * keyframe_size;
+      from = data.getInt(offset);
+      offset += 4;
+      for(int i = 0 ; i < numgroups; ++ i, offset += 8) {
+        state.scores[i] = data.getDouble(offset);
+      }
+      long[] bits = new long[numgroups * words];
+      for(int w = 0 ; w < bits.length; ++ w, offset += 8) {
+        bits[w] = data.getLong(offset);
+      }
+      state.visits.load(bits);
+    }
+    int last = turn == 0? 0 : firstVisit(turn), end = endVisit(turn);
+    for(int v = from ; v < end; ++ v) {
+      if(v == last) state.visits.startTurn();
+      int offset = visits_offset + v * 16;
+      state.visits.visit(data.getInt(offset), data.getInt(offset + 4));
+      state.scores[data.getInt(offset)] += data.getDouble(offset + 8);
+    }
+    if(last >= end) state.visits.startTurn();
+    return state;
+  }
+
+  public class State {
+    public final int turn;
+    public final double[] x = new double[numgroups], y = new double[numgroups];
+    public final double[] scores = new double[numgroups];
+    public final Visits visits = new Visits(numgroups, t);
+
+    State(int turn) {
+      this.turn = turn;
+    }
+  }
+
+  // prints the game at a turn, mostly to check a replay by eye
+  public static void main(String[] args) throws Exception {
+    if(args.length < 1) {
+      throw new IllegalArgumentException("Missing replay file");
+    }
+    ReplayReader replay = open(args[0]);
+    int turn = args.length > 1? Integer.parseInt(args[1]) : replay.turnCount();
+    State state = replay.stateAt(turn);
+    System.out.println(
+      "seed " + replay.seed + ", t " + replay.t + ", dt " + replay.dt + ", tl " + replay.time_limit
+      + ", turn " + turn + " of " + replay.turnCount()
+    );
+    for(int i = 0 ; i < replay.numPlayers(); ++ i) {
+      System.out.println(
+        replay.groups[i] + " at (" + state.x[i] + ", " + state.y[i] + ") visited "
+        + state.visits.visitedCount(i) + " scored " + state.scores[i]
+      );
+    }
+  }
+}
@@ -0,0 +1,221 @@
+package sail.sim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+* Writes the replay of one game, see ReplayReader for the format.
+*
+* The turns go straight to the file through one direct buffer, a turn costs a
+* few puts and no allocation. Visits and keyframes are few, they are kept here
+* and appended on close together with the trailer.
+*/
+class ReplayWriter implements AutoCloseable {
+  static final long MAGIC = 0x314C50524C494153L; // "SAILRPL1" in little endian
+  static final int VERSION = 3;
+  static final int KEYFRAME_INTERVAL = 1024;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final int numgroups;
+  private int words;
+  private long turns_offset;
+  private int turns = 0;
+  // every visit of the game in scoring order, (player, target, points)
+  private int visits = 0;
+  private int[] visit_players, visit_targets;
+  private double[] visit_points;
+  // the state at the end of the last turn, a copy is kept every KEYFRAME_INTERVAL turns
+  private double[] scores;
+  private long[] bits;
+  private List<double[]> keyframe_scores = new ArrayList<double[]>();
+  private List<long[]> keyframe_bits = new ArrayList<long[]>();
+  private int[] keyframe_visits = new int[16];
+  private GameResult result = null;
+
+  ReplayWriter(String file, int numgroups) throws IOException {
+    this.channel = FileChannel.open(
+      Paths.get(file),
+      StandardOpenOption.CREATE,
+      StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING
+    );
+    this.buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    this.numgroups = numgroups;
+    this.visit_players = new int[Math.max(16, numgroups)];
+    this.visit_targets = new int[visit_players.length];
+    this.visit_points = new double[visit_players.length];
+  }
+
+  static int recordSize(int numgroups) {
+    return 4 + numgroups * 24;
+  }
+
+  static int keyframeSize(int numgroups, int t) {
+    return 4 + numgroups * 8 + numgroups * ((t + 63) >>> 6) * 8;
+  }
+
+  void writeHeader(
+    long seed,
+    int t,
+    double dt,
+    long time_limit,
+    String[] groups,
+    Point wind_direction,
+    List<Point> initial_locations,
+    List<Point> targets,
+    long[][] phase_ns
+  ) throws IOException {
+    words = (t + 63) >>> 6;
+    scores = new double[numgroups];
+    bits = new long[numgroups * words];
+    ensure(48);
+    buffer.putLong(MAGIC).putInt(VERSION);
+    buffer.putLong(seed).putInt(t).putDouble(dt).putLong(time_limit).putInt(groups.length);
+    for(String group : groups) {
+      byte[] name = group.getBytes(StandardCharsets.UTF_8);
+      ensure(2 + name.length);
+      buffer.putShort((short) name.length).put(name);
+    }
+    ensure(16);
+    buffer.putDouble(wind_direction.x).putDouble(wind_direction.y);
+    for(Point p : initial_locations) {
+      ensure(16);
+      buffer.putDouble(p.x).putDouble(p.y);
+    }
+    for(Point p : targets) {
+      ensure(16);
+      buffer.putDouble(p.x).putDouble(p.y);
+    }
+    // what chooseStartingLocation and init cost
+    for(int i = 0 ; i < groups.length; ++ i) {
+      ensure(16);
+      buffer.putLong(phase_ns[i][GameResult.CHOOSE_START]).putLong(phase_ns[i][GameResult.INIT]);
+    }
+    ensure(4);
+    buffer.putInt(KEYFRAME_INTERVAL);
+    turns_offset = written();
+  }
+
+  // visits are the first `hits` entries of the hit arrays, in scoring order
+  void writeTurn(
+    int turn,
+    float[] dir_x,
+    float[] dir_y,
+    double[] x,
+    double[] y,
+    long[] charged_ns,
+    int hits,
+    int[] hit_players,
+    int[] hit_targets,
+    double[] hit_points
+  ) throws IOException {
+    if(turn != turns + 1) throw new IllegalStateException("turn " + turn + " after " + turns);
+    turns = turn;
+    ensure(recordSize(numgroups));
+    buffer.putInt(visits);
+    for(int i = 0 ; i < numgroups; ++ i) {
+      buffer.putFloat(dir_x[i]).putFloat(dir_y[i])
+        .putFloat((float) x[i]).putFloat((float) y[i])
+        .putLong(charged_ns[i]);
+    }
+    if(visits + hits > visit_players.length) {
+      int size = Math.max(visits + hits, 2 * visit_players.length);
+      visit_players = Arrays.copyOf(visit_players, size);
+      visit_targets = Arrays.copyOf(visit_targets, size);
+      visit_points = Arrays.copyOf(visit_points, size);
+    }
+    for(int k = 0 ; k < hits; ++ k) {
+      int player = hit_players[k], target = hit_targets[k];
+      visit_players[visits] = player;
+      visit_targets[visits] = target;
+      visit_points[visits] = hit_points[k];
+      ++ visits;
+      scores[player] += hit_points[k];
+      bits[player * words + (target >>> 6)] |= 1L << target;
+    }
+    if(turn % KEYFRAME_INTERVAL == 0) {
+      int k = keyframe_scores.size();
+      if(k == keyframe_visits.length) keyframe_visits = Arrays.copyOf(keyframe_visits, 2 * k);
+      keyframe_visits[k] = visits;
+      keyframe_scores.add(scores.clone());
+      keyframe_bits.add(bits.clone());
+    }
+  }
+
+  void writeEnd(GameResult result) {
+    this.result = result;
+  }
+
+  // bytes handed to the file so far, buffered ones included
+  private long written() throws IOException {
+    return channel.position() + buffer.position();
+  }
+
+  private void ensure(int bytes) throws IOException {
+    if(buffer.remaining() < bytes) flush();
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while(buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  // appends visits, keyframes and the trailer, a replay without them cannot be read
+  public void close() throws IOException {
+    try {
+      long visits_offset = written();
+      for(int k = 0 ; k < visits; ++ k) {
+        ensure(16);
+        buffer.putInt(visit_players[k]).putInt(visit_targets[k]).putDouble(visit_points[k]);
+      }
+      long keyframes_offset = written();
+      for(int k = 0 ; k < keyframe_scores.size(); ++ k) {
+        ensure(4);
+        buffer.putInt(keyframe_visits[k]);
+        for(double score : keyframe_scores.get(k)) {
+          ensure(8);
+          buffer.putDouble(score);
+        }
+        for(long word : keyframe_bits.get(k)) {
+          ensure(8);
+          buffer.putLong(word);
+        }
+      }
+      long trailer_offset = written();
+      ensure(37);
+      buffer.putLong(turns_offset).putInt(turns)
+        .putLong(visits_offset).putInt(visits)
+        .putLong(keyframes_offset).putInt(keyframe_scores.size())
+        .put((byte) (result == null? 0 : 1));
+      if(result != null) {
+        ensure(4 + 4 * result.finishers.size());
+        buffer.putInt(result.finishers.size());
+        for(int f : result.finishers) {
+          buffer.putInt(f);
+        }
+        for(int i = 0 ; i < numgroups; ++ i) {
+          ensure(16 + 8 * GameResult.PHASES.length);
+          buffer.putDouble(result.scores[i]).putLong(result.time_remaining_ns[i]);
+          for(long ns : result.phase_ns[i]) {
+            buffer.putLong(ns);
+          }
+        }
+      }
+      ensure(16);
+      buffer.putLong(trailer_offset).putLong(MAGIC);
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+}
@@ -10,110 +10,155 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.net.*;
 import java.util.*;
-import java.util.stream.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 
 public class Simulator {
-  private static String[] groups;
-  private static int numgroups = -1;
-  private static int duplicates = 1;
   private static String root = "sail";
-  private static int FRAME_SKIP = 1; // = n means (n-1) frames are skipped for every n frames
-  private static int t = -1;
-  private static long seed=-1;
-  private static int fps;
-  private static long total_time = 1000;//ms
-  private static long gui_refresh;
-  private static boolean gui_enabled, log;
-  private static double DT = 0.015; // test?
-  private static boolean is_tournament = false;
+  private String[] groups;
+  private int numgroups = -1;
+  private int FRAME_SKIP = 1; // = n means (n-1) frames are skipped for every n frames
+  private int t = -1;
+  private long seed=-1;
+  private long total_time = 1000;//ms
+  private long gui_refresh;
+  private boolean gui_enabled, log;
+  private double DT = 0.015; // test?
+  private boolean is_tournament = false;
+  // how player calls are run, see Timer.create
+  private String timer_kind = "dedicated";
+  // where to write the replay of the game, null for none
+  private String replay_file = null;
+  // the GUI, or a tournament game someone watches; watch_done runs once the frames are out
+  private HTTPServer server = null;
+  private FramePublisher frames = null;
+  private Runnable watch_done = null;
+  // the background threads of each player, stopped however the game ends
+  private Background[] background = null;
+  // the simulator's own messages, players keep printing to System.out
+  private PrintStream out = System.out;
+  // a watched tournament game is shown at no more than this
+  static final long WATCH_INTERVAL_MS = 1000 / 60;
+
+  private Simulator() {
+  }
+
+  // a tournament game, everything the simulator has to say goes to out
+  Simulator(String[] groups, int t, double dt, long total_time, PrintStream out) {
+    this.groups = groups;
+    this.numgroups = groups.length;
+    this.t = t;
+    this.DT = dt;
+    this.total_time = total_time;
+    this.is_tournament = true;
+    this.out = out;
+  }
+
+  void setReplayFile(String replay_file) {
+    this.replay_file = replay_file;
+  }
+
+  // streams the game to the server's viewers, sampled so the game runs as fast as ever
+  void watch(HTTPServer server, Runnable watch_done) {
+    this.server = server;
+    this.watch_done = watch_done;
+  }
 
   public static void main(String[] args) throws Exception {
       JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
       if(compiler == null) throw new IOException(":(");
-    parseArgs(args);
-    if(is_tournament) {
-      System.out.print(t +", " + DT + ", "+total_time+", ");
+    Simulator sim = new Simulator();
+    sim.parseArgs(args);
+    PrintStream results = System.out;
+    if(sim.is_tournament) {
+      results.print(sim.t +", " + sim.DT + ", "+sim.total_time+", ");
+      System.setOut(new NullPrintStream());
+      sim.out = System.out;
     }
-    if(numgroups == -1 || t == -1) {
+    if(sim.numgroups == -1 || sim.t == -1) {
       throw new IllegalArgumentException("Missing groups or targets");
     }
-    if(log) System.out.println("number of groups: "+numgroups +" and t = "+t);
+    if(sim.log) sim.out.println("number of groups: "+sim.numgroups +" and t = "+sim.t);
     List<Class<Player>> player_class = new ArrayList<Class<Player>>();
-    for(int i = 0; i < numgroups; ++i) {
-      player_class.add(loadPlayer(groups[i]));
+    for(int i = 0; i < sim.numgroups; ++i) {
+      player_class.add(loadPlayer(sim.groups[i], sim.log));
     }
 
-    Timer[] timers = new Timer[numgroups];
-    for(int i = 0; i < numgroups; ++ i) {
-      timers[i] = new Timer();
-      timers[i].start();
+    Timer[] timers = new Timer[sim.numgroups];
+    for(int i = 0; i < sim.numgroups; ++ i) {
+      timers[i] = Timer.create(sim.timer_kind);
     }
-    if(seed == -1)
-      seed = System.currentTimeMillis();
-    Player[] players = new Player[numgroups];
-    for(int i = 0 ; i < numgroups; ++ i) {
+    if(sim.seed == -1)
+      sim.seed = System.currentTimeMillis();
+    Player[] players = new Player[sim.numgroups];
+    for(int i = 0 ; i < sim.numgroups; ++ i) {
       players[i] = player_class.get(i).newInstance();
     }
-    new Simulator().play(numgroups, t, timers, players, seed);
-    
-    System.exit(0);
+    GameResult result = sim.play(timers, players, sim.seed);
+    if(sim.is_tournament) {
+      for(int f : result.finishers) {
+        results.print(sim.groups[f]+", ");
+      }
+      if(result.finishers.isEmpty()) {
+        results.print(",");
+      }
+      for(int j = 0 ; j < sim.numgroups; ++ j) {
+        results.print(result.scores[j]+", "+result.time_remaining[j]+", ");
+      }
+      results.println();
+    }
+    for(Timer timer : timers) {
+      timer.close();
+    }
   }
 
   // move fasssstt
   public static double getSpeed(Point p, Point wind_direction) {
-    if(Point.getNorm(p)==0) return 0;
-    double angle = Point.angleBetweenVectors(p, wind_direction) + Math.PI;
-    double x = 2.5 * Math.cos(angle) - 0.5;
-    double y = 5 * Math.sin(angle);
-    return Math.sqrt((x)*(x) + (y)*(y));
+    return getSpeed(p.x, p.y, wind_direction.x, wind_direction.y);
   }
 
-  private static int custom_compare_to(
-    int o1, 
-    int o2, 
-    List<Point> player_locations, 
-    List<Point> target_locations, 
-    // the endless war between camelCase and underscores does not end today.
-    List<Point> newLocations, 
-    int ii
-  ) {
-    Point intersection1 = getInterpolatedIntersectionPoint(
-        target_locations.get(ii),
-        player_locations.get(o1),
-        newLocations.get(o1)
-    );
-    Point intersection2 = getInterpolatedIntersectionPoint(
-        target_locations.get(ii),
-        player_locations.get(o2),
-        newLocations.get(o2)
-    );
+  // the same without the Points, wind (wx, wy)
+  public static double getSpeed(double x, double y, double wx, double wy) {
+    if(Math.hypot(x, y)==0) return 0;
+    double dot = x*wx + y*wy;
+    double det = x*wy - y*wx;
+    double angle = Math.atan2(det, dot);
+    if(angle < 0) angle += 2*Math.PI;
+    angle += Math.PI;
+    double sx = 2.5 * Math.cos(angle) - 0.5;
+    double sy = 5 * Math.sin(angle);
+    return Math.sqrt((sx)*(sx) + (sy)*(sy));
+  }
 
-    double dist1 = Point.getDistance(player_locations.get(o1), intersection1);
-    double dist3 = Point.getDistance(player_locations.get(o2), intersection2);
-    double dist2 = Point.getDistance(newLocations.get(o1), player_locations.get(o1));
-    double dist4 = Point.getDistance(newLocations.get(o2), player_locations.get(o2));
-    double ratio1 = (dist1)/(dist2);
-    double ratio2 = (dist3)/(dist4);
-    return new Double(ratio1).compareTo(ratio2);
+  GameResult play(Timer[] timers, Player[] players, long seed) throws Exception {
+    try {
+      return playGame(timers, players, seed);
+    } finally {
+      if(background != null) {
+        for(Background b : background) {
+          b.stop();
+        }
+      }
+      // a game that threw still lets its viewers go
+      if(frames != null) {
+        frames.close();
+        if(gui_enabled) frames.await();
+      } else if(watch_done != null) {
+        watch_done.run();
+      }
+      if(gui_enabled && server != null) server.close();
+    }
   }
 
   // a function should never be longer than ... never mind
-  private void play(
-    int numgroups, 
-    int t, 
+  private GameResult playGame(
     Timer[] timers, 
     Player[] players, 
-    Long seed
+    long seed
   ) throws Exception {
-    PrintStream original = System.out;
-    if(is_tournament)
-      System.setOut(new NullPrintStream());
-
-    HTTPServer server = null;
     Random gen = new Random(seed);
     if (gui_enabled) {
-      server = new HTTPServer();
+      server = new HTTPServer(webRoot());
       if (!Desktop.isDesktopSupported())
         System.err.println("Desktop operations not supported");
       else if (!Desktop.getDesktop().isSupported(Desktop.Action.BROWSE))
@@ -126,9 +171,11 @@ public class Simulator {
         }
       }
     }
-    long[] time_remaining = new long[numgroups];
+    // budgets are kept in ns, players only ever see whole ms
+    long[] time_remaining_ns = new long[numgroups];
+    long[][] phase_ns = new long[numgroups][GameResult.PHASES.length];
     for(int i = 0 ; i < numgroups; ++ i) {
-      time_remaining[i] = total_time;
+      time_remaining_ns[i] = TimeUnit.MILLISECONDS.toNanos(total_time);
     }
     final Point wind_direction = Point.getRandomPoint(gen);
     List<Point> player_locations = new ArrayList<Point>();
@@ -136,12 +183,12 @@ public class Simulator {
     List<Point> player_locations_u = Collections.unmodifiableList(player_locations);
 
     for(int i = 0 ; i < numgroups; ++ i) {
-      if(time_remaining[i] <= 0) {
+      if(time_remaining_ns[i] <= 0) {
         initial_player_locations.add(new Point(0,0));
         player_locations.add(new Point(0,0));
         continue;
       }
-      if(log) System.out.println("choosing starting location of group: " + groups[i]);
+      if(log) out.println("choosing starting location of group: " + groups[i]);
       try {
         final int ii =i;
         Point p = timers[i].call(
@@ -150,10 +197,10 @@ public class Simulator {
             gen.nextLong(),
             t
           ), 
-          time_remaining[ii]
+          time_remaining_ns[ii]
         );
-        time_remaining[i] -= timers[i].getElapsedTime();
-        if(time_remaining[i] == 0) {
+        charge(timers[i], i, GameResult.CHOOSE_START, time_remaining_ns, phase_ns);
+        if(time_remaining_ns[i] <= 0) {
           if(!is_tournament)
             System.err.println("Player "+groups[i] + " timed out" );
         }
@@ -162,7 +209,8 @@ public class Simulator {
       } catch(TimeoutException ex) {
         if(!is_tournament)
           System.err.println("Player "+groups[i] + " timed out" );
-        time_remaining[i] = 0;
+        charge(timers[i], i, GameResult.CHOOSE_START, time_remaining_ns, phase_ns);
+        time_remaining_ns[i] = 0;
         ex.printStackTrace();
         initial_player_locations.add(new Point(0,0));
         player_locations.add(new Point(0,0));
@@ -171,6 +219,7 @@ public class Simulator {
         System.err.println(
           "Exception calling choose starting location of player: " + groups[i]
         );
+        charge(timers[i], i, GameResult.CHOOSE_START, time_remaining_ns, phase_ns);
         // the show must go on
         initial_player_locations.add(new Point(0,0));
         player_locations.add(new Point(0,0));
@@ -194,17 +243,25 @@ public class Simulator {
         target_locations.add(poss);
     }
     List<Point> target_locations_u = Collections.unmodifiableList(target_locations);
+    // before init and charged to nobody, whoever uses it
+    TravelTimeMatrix travel_times = TravelTimeMatrix.buildForGame(target_locations_u, wind_direction);
+    background = new Background[numgroups];
+    for(int i = 0 ; i < numgroups; ++ i) {
+      players[i].travelTimeMatrix = travel_times;
+      background[i] = new Background(groups[i]);
+      players[i].background = background[i];
+    }
     for(int i = 0 ; i < numgroups; ++ i) {
-      if(time_remaining[i] <= 0) continue;
-      if(log) System.out.println("Initializing group: " + groups[i]);
+      if(time_remaining_ns[i] <= 0) continue;
+      if(log) out.println("Initializing group: " + groups[i]);
       try {
         final int ii =i;
         timers[i].call((Callable<Void>) () -> {
           players[ii].init(player_locations_u, target_locations_u, ii);
           return null;
-        }, time_remaining[i]);
-        time_remaining[i] -= timers[i].getElapsedTime();
-        if(time_remaining[i] == 0) {
+        }, time_remaining_ns[i]);
+        charge(timers[i], i, GameResult.INIT, time_remaining_ns, phase_ns);
+        if(time_remaining_ns[i] <= 0) {
           if(!is_tournament)
             System.err.println("Player "+groups[i] + " timed out" );
         }
@@ -212,10 +269,11 @@ public class Simulator {
         if(!is_tournament)
           System.err.println("Player "+groups[i] + " timed out" );
         
-
-        time_remaining[i] = 0;
+        charge(timers[i], i, GameResult.INIT, time_remaining_ns, phase_ns);
+        time_remaining_ns[i] = 0;
       } catch (Exception ex) {
         System.err.println("Exception calling init of player: " + groups[i]);
+        charge(timers[i], i, GameResult.INIT, time_remaining_ns, phase_ns);
         ex.printStackTrace();
       }
     }
@@ -224,176 +282,234 @@ public class Simulator {
       vis_count[i] = 0;
     }
     double[] scores = new double[numgroups];
-    Map<Integer, Set<Integer>> visited_set = new HashMap<>();
-    Map<Integer, Set<Integer>> visited_set_ut = new HashMap<>();
+    Visits visits = new Visits(numgroups, t);
+    List<Integer> finishers = new ArrayList<>();
+
+    // from here on the board lives in flat arrays, so a turn allocates nothing but
+    // the new locations handed to the players
+    final double wx = wind_direction.x, wy = wind_direction.y;
+    final double reach = 0.01 + 6*DT;
+    double[] tx = new double[t], ty = new double[t];
+    for(int i = 0 ; i < t; ++ i) {
+      tx[i] = target_locations.get(i).x;
+      ty[i] = target_locations.get(i).y;
+    }
+    double[] ix = new double[numgroups], iy = new double[numgroups];
+    double[] px = new double[numgroups], py = new double[numgroups];
+    double[] nx = new double[numgroups], ny = new double[numgroups];
+    boolean[] moved = new boolean[numgroups];
+    // what the replay gets each turn: the direction asked for and the ns charged
+    float[] dir_x = new float[numgroups], dir_y = new float[numgroups];
+    long[] turn_ns = new long[numgroups];
     for(int i = 0 ; i < numgroups; ++ i) {
-      Set<Integer> putset = new HashSet<>();
-      visited_set.put(i, putset);
-      visited_set_ut.put(i, Collections.unmodifiableSet(putset));
+      ix[i] = initial_player_locations.get(i).x;
+      iy[i] = initial_player_locations.get(i).y;
+      px[i] = player_locations.get(i).x;
+      py[i] = player_locations.get(i).y;
     }
-    Map<Integer, Set<Integer>> visited_set_u = Collections.unmodifiableMap(visited_set_ut);
-    if(log) System.out.println("Starting game");
+    TargetGrid grid = new TargetGrid(tx, ty, reach);
+    // (target, player) hits of this turn, grown on the rare turn with more than that
+    int[] hit_targets = new int[numgroups];
+    int[] hit_players = new int[numgroups];
+    double[] hit_ratios = new double[numgroups];
+    double[] hit_points = new double[numgroups];
+
+    // the calls are built once, the arrays they read are updated in place
+    List<Callable<Point>> move_calls = new ArrayList<>();
+    List<Callable<Void>> move_finished_calls = new ArrayList<>();
+    for(int i = 0 ; i < numgroups; ++ i) {
+      final int ii = i;
+      move_calls.add(
+        () -> players[ii].move(
+          player_locations_u, ii, DT, TimeUnit.NANOSECONDS.toMillis(time_remaining_ns[ii])
+        )
+      );
+      move_finished_calls.add(() -> {
+        players[ii].onMoveFinished(player_locations_u, visits);
+        return null;
+      });
+    }
+
+    if(server != null) {
+      // the GUI paces the game itself, a watched game is only sampled
+      frames = new FramePublisher(
+        server,
+        new FrameEncoder(
+          groups, initial_player_locations, target_locations, wind_direction, gui_refresh
+        ),
+        numgroups,
+        t,
+        gui_enabled? 0 : WATCH_INTERVAL_MS,
+        watch_done
+      );
+    }
+    ReplayWriter replay = null;
+    if(replay_file != null) {
+      replay = new ReplayWriter(replay_file, numgroups);
+      replay.writeHeader(
+        seed, t, DT, total_time, groups, wind_direction,
+        initial_player_locations, target_locations, phase_ns
+      );
+    }
+
+    long last_frame = 0;
+    if(gui_enabled) {
+      // the browser was just opened, give it a chance to see the first turn
+      if(!server.awaitViewer(5000)) System.err.println("Nobody is watching, playing anyway");
+      last_frame = System.nanoTime();
+    }
+
+    if(log) out.println("Starting game");
     int turn_counter = 0;
     while(true) {
       ++ turn_counter;
-      List<Point> newLocations = new ArrayList<>();
       for(int i = 0 ; i < numgroups; ++i) {
-        if(time_remaining[i] <= 0) {
-          newLocations.add(player_locations.get(i));
+        nx[i] = px[i];
+        ny[i] = py[i];
+        moved[i] = false;
+        dir_x[i] = dir_y[i] = 0;
+        turn_ns[i] = phase_ns[i][GameResult.MOVE] + phase_ns[i][GameResult.MOVE_FINISHED]
+          + phase_ns[i][GameResult.BACKGROUND];
+        chargeBackground(background[i], i, time_remaining_ns, phase_ns);
+        if(time_remaining_ns[i] <= 0) {
           continue;
         }
-        final int ii = i;
         // if(log) System.out.println("Moving group: " + groups[i]);
         try {
-          Point newDirection = timers[i].call(
-            () -> players[ii].move(player_locations_u, ii, DT, time_remaining[ii]), 
-            time_remaining[i]
-          );
+          Point newDirection = timers[i].call(move_calls.get(i), time_remaining_ns[i]);
 
-          time_remaining[i] -= timers[i].getElapsedTime();
-          if(time_remaining[i] == 0) {
+          charge(timers[i], i, GameResult.MOVE, time_remaining_ns, phase_ns);
+          if(time_remaining_ns[i] <= 0) {
             if(!is_tournament)
               System.err.println("Player "+groups[i] + " timed out" );
           }
           if(newDirection.x == 0 && newDirection.y == 0) {
-            newLocations.add(player_locations.get(i));
             continue;
           }
-          if(true /*Point.getNorm(newDirection) > 1*/) {
-            newDirection = Point.getUnitVector(newDirection);
-          }
-          double speed = getSpeed(newDirection, wind_direction);
-          Point distanceMoved = new Point(
-            newDirection.x * speed * DT, 
-            newDirection.y * speed * DT
-          );
-          Point nextLocation = Point.sum(player_locations.get(i), distanceMoved);
-          if (nextLocation.x < 0 || nextLocation.y > 10 || 
-            nextLocation.y < 0 || nextLocation.x > 10) {
+          dir_x[i] = (float) newDirection.x;
+          dir_y[i] = (float) newDirection.y;
+          double norm = Math.hypot(newDirection.x, newDirection.y);
+          double ux = newDirection.x / norm;
+          double uy = newDirection.y / norm;
+          double speed = getSpeed(ux, uy, wx, wy);
+          nx[i] = px[i] + ux * speed * DT;
+          ny[i] = py[i] + uy * speed * DT;
+          moved[i] = true;
+          if (nx[i] < 0 || ny[i] > 10 || ny[i] < 0 || nx[i] > 10) {
             //System.err.println("location returned is out of bounds group " + groups[ii]);
-
-            nextLocation = getInterpolatedIntersectionLine(player_locations.get(i), nextLocation, 
-              nextLocation.x < 0? 0 : nextLocation.x > 10? 10: -1,
-              nextLocation.y < 0? 0 : nextLocation.y > 10? 10: -1);
-            
+            moved[i] = clampToBoard(px[i], py[i], nx, ny, i);
           }
-          newLocations.add(nextLocation);
-          //if(log) System.out.println(" from: ("+player_locations.get(i).x + ", " +
-          //  player_locations.get(i).y+ ") to (" +newLocations.get(i).x +
-          // ", "+newLocations.get(i).y+")");
 
         } catch(TimeoutException ex) {
           if(!is_tournament)
             System.err.println("Player " + i + ": "+groups[i] + " timed out" );
           
           ex.printStackTrace();
-          newLocations.add(player_locations.get(i));
-          time_remaining[i] = 0;
+          nx[i] = px[i];
+          ny[i] = py[i];
+          moved[i] = false;
+          charge(timers[i], i, GameResult.MOVE, time_remaining_ns, phase_ns);
+          time_remaining_ns[i] = 0;
         } catch (Exception ex) {
-          System.err.println("Exception calling move of "+groups[ii]);
+          System.err.println("Exception calling move of "+groups[i]);
+          charge(timers[i], i, GameResult.MOVE, time_remaining_ns, phase_ns);
           ex.printStackTrace();
-          newLocations.add(player_locations.get(i));
+          nx[i] = px[i];
+          ny[i] = py[i];
+          moved[i] = false;
         }
       }
 
-      for(int i = 0 ; i < t ;++ i) {
-        List<Integer> groups_on_this = new ArrayList<>();
-        for (int j = 0 ; j < numgroups; ++j) {
-          if(!visited_set.get(j).contains(i) && 
-            Point.getDistance(target_locations.get(i), player_locations.get(j)) < 0.01 + 6*DT && 
-            checkCrossedInterpolation(
-              target_locations.get(i), 
-              player_locations.get(j), 
-              newLocations.get(j)
-            )
-          ) {
-            if(log) System.out.println("Group " + groups[j] +" visited target: "+i);
-            visited_set.get(j).add(i);
-            groups_on_this.add(j);
+      // only targets in the cells around a boat are within reach of it
+      visits.startTurn();
+      int hits = 0;
+      for (int j = 0 ; j < numgroups; ++j) {
+        int cx = grid.cellOf(px[j]), cy = grid.cellOf(py[j]);
+        for(int gy = Math.max(0, cy - 1); gy <= Math.min(grid.side - 1, cy + 1); ++ gy) {
+          for(int gx = Math.max(0, cx - 1); gx <= Math.min(grid.side - 1, cx + 1); ++ gx) {
+            int c = gy * grid.side + gx;
+            for(int k = grid.start[c]; k < grid.start[c + 1]; ++ k) {
+              int i = grid.ids[k];
+              if(visits.isVisited(j, i)) continue;
+              double dx = tx[i] - px[j], dy = ty[i] - py[j];
+              if(Math.sqrt(dx*dx + dy*dy) >= reach) continue;
+              double ratio = getCrossingRatio(tx[i], ty[i], px[j], py[j], nx[j], ny[j]);
+              if(ratio < 0) continue;
+              if(hits == hit_targets.length) {
+                hit_targets = Arrays.copyOf(hit_targets, 2 * hits);
+                hit_players = Arrays.copyOf(hit_players, 2 * hits);
+                hit_ratios = Arrays.copyOf(hit_ratios, 2 * hits);
+                hit_points = Arrays.copyOf(hit_points, 2 * hits);
+              }
+              // by target, then earlier hits first, then by player
+              int h = hits++;
+              while(h > 0 && compareHits(
+                hit_targets[h-1], hit_ratios[h-1], hit_players[h-1], i, ratio, j) > 0
+              ) {
+                hit_targets[h] = hit_targets[h-1];
+                hit_players[h] = hit_players[h-1];
+                hit_ratios[h] = hit_ratios[h-1];
+                --h;
+              }
+              hit_targets[h] = i;
+              hit_players[h] = j;
+              hit_ratios[h] = ratio;
+            }
           }
         }
-        final int ii = i;
-        Collections.sort(
-          groups_on_this, 
-          (o1, o2) -> custom_compare_to(
-            o1, 
-            o2, 
-            player_locations, 
-            target_locations, 
-            newLocations, 
-            ii
-          )
-        );
-        for(int x=0; x < groups_on_this.size();) {
-          int y = x;
-          int totp = 0;
-          while(y < groups_on_this.size() && 
-            custom_compare_to(
-              groups_on_this.get(x),
-              groups_on_this.get(y),
-              player_locations,
-              target_locations,
-              newLocations, 
-              ii
-            ) == 0
-          ) {
-            totp += numgroups - vis_count[i] - (y-x);
-            ++y;
-          }
-          int cnt = y - x;
-          while(x < y) {
-            scores[groups_on_this.get(x)] += totp/(double)cnt;
-            ++x;
-            vis_count[i]+=1;
-          }
+      }
+      for(int x = 0; x < hits;) {
+        int i = hit_targets[x];
+        int y = x;
+        int totp = 0;
+        while(y < hits && hit_targets[y] == i &&
+          Double.compare(hit_ratios[x], hit_ratios[y]) == 0
+        ) {
+          totp += numgroups - vis_count[i] - (y-x);
+          ++y;
+        }
+        int cnt = y - x;
+        while(x < y) {
+          int j = hit_players[x];
+          if(log) out.println("Group " + groups[j] +" visited target: "+i);
+          visits.visit(j, i);
+          scores[j] += totp/(double)cnt;
+          hit_points[x] = totp/(double)cnt;
+          ++x;
+          vis_count[i]+=1;
         }
       }
 
       boolean finished = false, all_timed_out = true;
       for(int i = 0 ; i < numgroups; ++ i) {
-        if(time_remaining[i] > 0) all_timed_out = false;
-        if(visited_set.get(i).size() == t &&
-          checkCrossedInterpolation(
-              initial_player_locations.get(i), 
-              player_locations.get(i), 
-              newLocations.get(i)
-          )
+        if(time_remaining_ns[i] > 0) all_timed_out = false;
+        if(visits.visitedCount(i) == t &&
+          getInterpolatedIntersection(ix[i], iy[i], px[i], py[i], nx[i], ny[i]) >= 0
         ) {
-          if(is_tournament) {
-            System.setOut(original);
-            System.out.print(groups[i]+", ");
-          }
-          else
-            System.out.println("Finisher was "+groups[i]);
+          if(!is_tournament)
+            out.println("Finisher was "+groups[i]);
+          finishers.add(i);
           finished = true;
         }
       }
 
       if(!finished && all_timed_out) {
-        if(is_tournament) {
-          System.setOut(original);
-          System.out.print(",");
-        }
         finished = true;
       }
 
 
-      player_locations.clear();
       for(int i = 0 ; i < numgroups; ++ i) {
-        player_locations.add(newLocations.get(i));
+        px[i] = nx[i];
+        py[i] = ny[i];
+        if(moved[i]) player_locations.set(i, new Point(px[i], py[i]));
       }
-      newLocations.clear();
 
       for(int i = 0 ; i < numgroups ; ++ i) {
-        if(time_remaining[i] <= 0 || finished) continue;
+        if(time_remaining_ns[i] <= 0 || finished) continue;
         try {
-          final int ii =i;
-          timers[i].call((Callable<Void>) () -> {
-            players[ii].onMoveFinished(player_locations_u, visited_set_u);
-            return null;
-          }, time_remaining[i]);
-          time_remaining[i] -= timers[i].getElapsedTime();
-          if(time_remaining[i] == 0) {
+          timers[i].call(move_finished_calls.get(i), time_remaining_ns[i]);
+          charge(timers[i], i, GameResult.MOVE_FINISHED, time_remaining_ns, phase_ns);
+          if(time_remaining_ns[i] <= 0) {
             if(!is_tournament)
               System.err.println("Player "+groups[i] + " timed out" );
           }
@@ -402,135 +518,154 @@ public class Simulator {
             System.err.println("Player " + i + ": "+groups[i] + " timed out" );
           
           ex.printStackTrace();
-          time_remaining[i] = 0;
+          charge(timers[i], i, GameResult.MOVE_FINISHED, time_remaining_ns, phase_ns);
+          time_remaining_ns[i] = 0;
         } catch (Exception ex) {
           System.err.println("Exception calling onMoveFinished of player: " + groups[i]);
+          charge(timers[i], i, GameResult.MOVE_FINISHED, time_remaining_ns, phase_ns);
           ex.printStackTrace();
         }
       }
+      if(replay != null) {
+        for(int i = 0 ; i < numgroups; ++ i) {
+          turn_ns[i] = phase_ns[i][GameResult.MOVE] + phase_ns[i][GameResult.MOVE_FINISHED]
+            + phase_ns[i][GameResult.BACKGROUND] - turn_ns[i];
+        }
+        replay.writeTurn(
+          turn_counter, dir_x, dir_y, px, py, turn_ns, hits, hit_players, hit_targets, hit_points
+        );
+      }
       // for(int i =0 ; i < numgroups; ++ i) {
-      //   System.out.println("time left: " + time_remaining[i] + " for "+ groups[i]);
+      //   System.out.println("time left: " + time_remaining_ns[i] + " for "+ groups[i]);
       // }
       if (finished) {
-        if (gui_enabled) {
-          gui(
-            server,
-            state(
-              1,
-              groups,
-              scores,
-              target_locations,
-              player_locations,
-              initial_player_locations,
-              wind_direction,
-              gui_refresh,
-              visited_set
-            )
-          );
+        if (frames != null) {
+          frames.offer(true, scores, px, py, visits);
         }
 
         if(log) {
           for(int j = 0 ; j < numgroups; ++ j) {
-            System.out.println(groups[j] + " scored " + scores[j]);
+            out.println(groups[j] + " scored " + scores[j]);
           }
         } 
         
-        if(log) System.out.println("Ended!");
+        if(log) out.println("Ended!");
         finished = true;
-        if(gui_enabled) for(;;);
       }
       
-      if(gui_enabled && turn_counter % FRAME_SKIP == 0)
-        gui(
-          server, 
-          state(
-                  0,
-            groups,
-            scores,
-            target_locations,
-            player_locations,
-            initial_player_locations,
-            wind_direction,
-            gui_refresh,
-            visited_set
-          )
-        );
+      if(frames != null && !finished && turn_counter % FRAME_SKIP == 0) {
+        frames.offer(false, scores, px, py, visits);
+        if(gui_enabled && gui_refresh > 0) last_frame = pace(last_frame, gui_refresh);
+      }
       if(finished)
         break;
     }
-    for(int j = 0 ; j < numgroups; ++ j) {
-      if(!is_tournament)
-        System.out.println(groups[j] + " scored " + scores[j]);
-      else {
-        System.out.print(scores[j]+", "+time_remaining[j]+", ");
+    if(!is_tournament) {
+      for(int j = 0 ; j < numgroups; ++ j) {
+        out.println(groups[j] + " scored " + scores[j]);
       }
+      out.println();
+      for(int j = 0 ; j < numgroups; ++ j) {
+        out.printf("%s time used (ms):", groups[j]);
+        for(int k = 0 ; k < GameResult.PHASES.length; ++ k) {
+          out.printf(" %s %.3f", GameResult.PHASES[k], phase_ns[j][k] / 1e6);
+        }
+        out.println();
+      }
+      out.println();
     }
-    System.out.println();
-    if(server != null) server.close();
+    for(int i = 0 ; i < numgroups; ++ i) {
+      background[i].stop();
+      chargeBackground(background[i], i, time_remaining_ns, phase_ns);
+    }
+    GameResult result = new GameResult(
+      seed, t, DT, total_time, groups, scores, time_remaining_ns, phase_ns, finishers, turn_counter
+    );
+    if(replay != null) {
+      replay.writeEnd(result);
+      replay.close();
+    }
+    return result;
   }
 
-
-  // checks if (a --- > b) line segment intersects circle radius 0.01 around t
-  private static boolean checkCrossedInterpolation(Point t, Point a, Point b) {
-    Point p = getInterpolatedIntersectionPoint(t, a, b);
-    if(p.x == -1 && p.y == -1) return false;
-    else return true;
+  // takes the time of the last call on the timer out of the player's budget
+  private static void charge(
+    Timer timer, int player, int phase, long[] time_remaining_ns, long[][] phase_ns
+  ) {
+    long elapsed = timer.getElapsedNanos();
+    time_remaining_ns[player] -= elapsed;
+    phase_ns[player][phase] += elapsed;
   }
 
-  private static Point getInterpolatedIntersectionX(Point s, Point t, int x) {
-    //s + (t-s)m = x - s/ t - s
-    if(s.y == t.y) return new Point (x, s.y);
-    return new Point(x, s.y + (t.y - s.y) * (x - s.x) / (t.x - s.x));
+  // takes what the background threads of the player used out of its budget, see Background
+  private static void chargeBackground(
+    Background background, int player, long[] time_remaining_ns, long[][] phase_ns
+  ) {
+    long used = background.take();
+    time_remaining_ns[player] -= used;
+    phase_ns[player][GameResult.BACKGROUND] += used;
+    if(time_remaining_ns[player] <= 0) background.stop();
   }
 
 
-  private static Point getInterpolatedIntersectionY(Point s, Point t, int y) {
+  // moves (nx[i], ny[i]) back along the move from (sx, sy) onto the edge of the board,
+  // returns false (and leaves the boat at (sx, sy)) if the math gives up
+  private static boolean clampToBoard(double sx, double sy, double[] nx, double[] ny, int i) {
+    double ex = nx[i], ey = ny[i];
+    int x = ex < 0? 0 : ex > 10? 10: -1;
+    int y = ey < 0? 0 : ey > 10? 10: -1;
     //s + (t-s)m = x - s/ t - s
-    if(s.x == t.x) return new Point (s.x, y);
-    return new Point(s.x + (t.x - s.x) * (y - s.y) / (t.y - s.y), y);
+    double p1x = (sx == ex)? sx : sx + (ex - sx) * (y - sy) / (ey - sy);
+    double p2y = (sy == ey)? sy : sy + (ey - sy) * (x - sx) / (ex - sx);
+    if(y != -1 && (p1x >= 0 && p1x <= 10)) {
+      nx[i] = p1x;
+      ny[i] = y;
+      return true;
+    }
+    if(x != -1 && p2y >= 0 && p2y <= 10) {
+      nx[i] = x;
+      ny[i] = p2y;
+      return true;
+    }
+    System.err.println("Line segment interpolation math failed...");
+    nx[i] = sx;
+    ny[i] = sy;
+    return false;
   }
 
-  private static Point getInterpolatedIntersectionLine(Point s, Point t, int x, int y) {
-    Point p1 = getInterpolatedIntersectionY(s,t,y);
-    Point p2 = getInterpolatedIntersectionX(s,t,x);
-    // System.out.println(p1.x + ", " + p1.y);
-    // System.out.println(p2.x + ", " + p2.y);
-    if(y != -1 && (p1.x >= 0 && p1.x <= 10)) return p1;
-    if(x != -1 && p2.y >= 0 && p2.y <= 10) return p2;
-    System.err.println("Line segment interpolation math failed...");
-    return s;
+  // how far along the move (e --- > l) the boat enters the circle around the centre,
+  // as a ratio of the whole move, -1 if it doesn't
+  private static double getCrossingRatio(
+    double cx, double cy, double ex, double ey, double lx, double ly
+  ) {
+    double m = getInterpolatedIntersection(cx, cy, ex, ey, lx, ly);
+    if(m < 0) return -1;
+    double hx = ex + (lx - ex) * m, hy = ey + (ly - ey) * m;
+    double dist1 = Math.sqrt((ex - hx)*(ex - hx) + (ey - hy)*(ey - hy));
+    double dist2 = Math.sqrt((lx - ex)*(lx - ex) + (ly - ey)*(ly - ey));
+    return dist1/dist2;
+  }
+
+  private static int compareHits(
+    int target1, double ratio1, int player1, int target2, double ratio2, int player2
+  ) {
+    if(target1 != target2) return Integer.compare(target1, target2);
+    int cmp = Double.compare(ratio1, ratio2);
+    return cmp != 0? cmp : Integer.compare(player1, player2);
   }
 
   // Ooh O(1), math is cooool
-  private static Point getInterpolatedIntersectionPoint(Point centre, Point e, Point l) {
-    double r = 0.01;
-    Point d = Point.getDirection(e, l);
-    Point f = Point.getDirection(centre, e);
-    double a = Point.dot(d,d);
-    double b = 2 * Point.dot(f,d);
-    double c = Point.dot(f,f) - r*r;
-    double discr = b*b - 4*a*c;
-    if(discr < 0) {
-      return new Point(-1, -1);
-    }
-    discr = Math.sqrt(discr);
-    double t1 = (-b - discr)/(2*a);
-    double t2 = (-b + discr)/(2*a);
-
-
-    if(t1 >=0 && t1 <= 1) {
-      return Point.sum(e, Point.multiply(d,t1));
-    } else if(t2 >= 0 && t2 <= 1) {
-      System.err.println("console failure, this line should not"+
-        "have been reached (exit interpolated point)");
-      return new Point(-1, -1);
-    } else {
-      return new Point(-1, -1);
-    }
+  // (e --- > l) segment against the circle radius 0.01 around the centre, returns the
+  // segment parameter in [0, 1] where it enters the circle or -1 if it doesn't
+  private static double getInterpolatedIntersection(
+    double cx, double cy, double ex, double ey, double lx, double ly
+  ) {
+    return PointMath.segmentCircleEntry(ex, ey, lx, ly, cx, cy, 0.01);
   }
 
+
   // yawns
-  private static void parseArgs(String[] args) {
+  private void parseArgs(String[] args) {
     for(int i = 0; i < args.length; ++i) {
 
       if (args[i].equals("-g") || args[i].equals("--groups")) {
@@ -583,6 +718,21 @@ public class Simulator {
         log = true;
       } else if (args[i].equals("--tournament")) {
         is_tournament = true;
+      } else if (args[i].equals("--timer")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing timer kind");
+        }
+        timer_kind = args[++i];
+        if (!Timer.KINDS.contains(timer_kind)) {
+          throw new IllegalArgumentException("Unknown timer: " + timer_kind);
+        }
+      } else if (args[i].equals("--same-thread")) {
+        timer_kind = "same-thread";
+      } else if (args[i].equals("--replay")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing replay file");
+        }
+        replay_file = args[++i];
       } else {
         throw new IllegalArgumentException("Unknown argument: " + args[i]);
       }
@@ -601,8 +751,9 @@ public class Simulator {
   }
 
   //ty Kevin shi
-  private static Class <Player> loadPlayer(
-      String group
+  static Class <Player> loadPlayer(
+      String group,
+      boolean log
     ) throws IOException, ReflectiveOperationException {
     String sep = File.separator;
     Set<File> player_files = directory(root + sep + group, ".java");
@@ -655,105 +806,18 @@ public class Simulator {
     return files;
   }
 
-  public static class BoostString {
-    double boost;
-    String str;
-    int i;
-
-    public BoostString(double boost, String str, int i) {
-        this.boost = boost;
-        this.str = str;
-        this.i = i;
-    }
-  }
-
-  public static String state(
-    int st,
-    String[] groups,
-    double[] scores,
-    List<Point> targets,
-    List<Point> players,
-    List<Point> inits,
-    Point wind_direction,
-    long gui_refresh,
-    Map<Integer, Set<Integer>> visited_set) {
-
-    String buffer = "";
-    buffer += st + ", ";
-    buffer += players.size() + ", ";
-    for(String pl: groups) {
-      buffer += pl + ", ";
-    }
-    for(double sc : scores) {
-      buffer += sc + ", ";
-    }
-
-    final Integer[] sorted = IntStream.range(0, numgroups)
-        .mapToObj(i -> new BoostString(scores[i], groups[i], i)) // Create the instance
-        .sorted(Comparator.comparingDouble(b -> b.boost))         // Sort using a Comparator
-        .map(b -> b.i)                                       // Map it back to a string
-        .toArray(Integer[]::new);  
-    for(Integer inte : sorted) {
-      buffer += (int)inte + ", ";
-    } 
-    for(Point x : players) {
-      buffer += x.x + ", " + x.y + ", ";
-    }
-    for(Point x : inits) {
-      buffer += x.x + ", " + x.y + ", ";
-    }
-    buffer += targets.size() +", ";
-    for(Point x : targets) {
-      buffer += x.x + ", " + x.y + ", ";
-    }
-    for(int i = 0 ; i < t; ++i) {
-      int num = 0;
-      for(int j = 0;j<numgroups; ++j) {
-        num += (visited_set.get(j).contains(i)==true? 1:0);
-      }
-      buffer += num +", ";
-    }
-    buffer += wind_direction.x + ", " + wind_direction.y + ", ";
-    buffer += gui_refresh;
-    return buffer;
+  // where the GUI page and script are
+  static File webRoot() {
+    return new File(root + File.separator + "sim");
   }
 
-  // icky gui wounds
-  public static void gui(HTTPServer server, String content) {
-    String path = null;
-    for (;;) {
-        // get request
-      for (;;)
-      try {
-        path = server.request();
-        break;
-      } catch (IOException e) {
-        System.err.println("HTTP request error: " + e.getMessage());
-      }
-        // dynamic content
-      if (path.equals("data.txt")) {
-        // send dynamic content
-        try {
-          server.reply(content);
-          return;
-        } catch (IOException e) {
-          System.err.println("HTTP dynamic reply error: " + e.getMessage());
-          continue;
-        }
-      }
-      // static content
-      if (path.equals("")) path = "webpage.html";
-      else if (!path.equals("favicon.ico") &&
-           !path.equals("apple-touch-icon.png") &&
-           !path.equals("script.js")) break;
-      // send file
-      File file = new File(root + File.separator + "sim"
-           + File.separator + path);
-      try {
-        server.reply(file);
-      } catch (IOException e) {
-        System.err.println("HTTP static reply error: " + e.getMessage());
-      }
+  // sleeps until refresh_ms after the last frame, returns the time of this one
+  private static long pace(long last_frame_ns, long refresh_ms) {
+    long next = last_frame_ns + TimeUnit.MILLISECONDS.toNanos(refresh_ms);
+    for(long left; (left = next - System.nanoTime()) > 0; ) {
+      LockSupport.parkNanos(left);
     }
+    // a slow turn should not be made up for with a burst of frames
+    return Math.max(next, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(refresh_ms));
   }
 }
\ No newline at end of file
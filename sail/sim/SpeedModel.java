@@ -0,0 +1,121 @@
+package sail.sim;
+
+/**
+* Simulator.getSpeed for one wind, without the trigonometry.
+*
+* The speed only depends on the cosine c of the angle between the heading and
+* the wind: getSpeed works out to sqrt(25.25 + 2.5c - 18.75c^2), from 2 into the
+* wind (c = -1) to 3 with it and about 5.03 across. exactSpeed is that formula,
+* one dot product and two square roots. speed and speedAtAngle interpolate in
+* tables of it over c and over the angle, no square root of the speed at all.
+*
+* Interpolation error is measured when the model is built, see maxTableError.
+* With the default resolution it is below 2e-6 (about 1e-6 of the speed), the
+* exact formula agrees with getSpeed to a few ulps. The simulator itself keeps
+* using getSpeed, so a player that needs the exact speed of its move should too.
+*
+* Build one per game, e.g. in init: new SpeedModel(wind_direction).
+*/
+public final class SpeedModel {
+  public static final int DEFAULT_RESOLUTION = 4096;
+
+  private final double wx, wy;
+  private final int resolution;
+  // speed at c = -1 + 2i/resolution and at angle pi*i/resolution, one entry past the end
+  private final double[] by_cos, by_angle;
+  private final double cos_scale, angle_scale;
+  private final double table_error;
+
+  public SpeedModel(Point wind_direction) {
+    this(wind_direction.x, wind_direction.y, DEFAULT_RESOLUTION);
+  }
+
+  public SpeedModel(double wx, double wy, int resolution) {
+    if(resolution < 2) {
+      throw new IllegalArgumentException("Resolution too small: " + resolution);
+    }
+    double norm = Math.sqrt(wx*wx + wy*wy);
+    if(!(norm > 0)) {
+      throw new IllegalArgumentException("No wind");
+    }
+    this.wx = wx / norm;
+    this.wy = wy / norm;
+    this.resolution = resolution;
+    by_cos = new double[resolution + 2];
+    by_angle = new double[resolution + 2];
+    cos_scale = resolution / 2.0;
+    angle_scale = resolution / Math.PI;
+    for(int i = 0 ; i < resolution + 2; ++ i) {
+      by_cos[i] = speedForCos(-1 + i / cos_scale);
+      by_angle[i] = speedForCos(Math.cos(i / angle_scale));
+    }
+    // linear interpolation is the furthest off about half way between entries
+    double error = 0;
+    for(int i = 0 ; i < resolution; ++ i) {
+      double c = -1 + (i + 0.5) / cos_scale, angle = (i + 0.5) / angle_scale;
+      error = Math.max(error, Math.abs(speedForCos(c) - lookUp(by_cos, (c + 1) * cos_scale)));
+      error = Math.max(error, Math.abs(speedForCos(Math.cos(angle)) - lookUp(by_angle, angle * angle_scale)));
+    }
+    table_error = error;
+  }
+
+  // the closed form, c the cosine between heading and wind
+  static double speedForCos(double c) {
+    return Math.sqrt(25.25 + 2.5*c - 18.75*c*c);
+  }
+
+  private static double lookUp(double[] table, double at) {
+    int i = (int) at;
+    double f = at - i;
+    return table[i] + (table[i + 1] - table[i]) * f;
+  }
+
+  public int resolution() {
+    return resolution;
+  }
+
+  // largest difference seen between the tables and exactSpeed
+  public double maxTableError() {
+    return table_error;
+  }
+
+  // speed heading along (x, y), 0 for (0, 0) like getSpeed
+  public double speed(double x, double y) {
+    double norm2 = x*x + y*y;
+    if(norm2 == 0) return 0;
+    double c = (x*wx + y*wy) / Math.sqrt(norm2);
+    // rounding can take c a hair outside [-1, 1]
+    if(c < -1) c = -1;
+    else if(c > 1) c = 1;
+    return lookUp(by_cos, (c + 1) * cos_scale);
+  }
+
+  public double speed(Point direction) {
+    return speed(direction.x, direction.y);
+  }
+
+  /**
+  * Speed heading at an angle (radians, either way round) from the direction
+  * the wind blows to.
+  */
+  public double speedAtAngle(double angle) {
+    double a = Math.abs(angle);
+    if(a > 2*Math.PI) a %= 2*Math.PI;
+    if(a > Math.PI) a = 2*Math.PI - a;
+    return lookUp(by_angle, a * angle_scale);
+  }
+
+  // getSpeed up to rounding
+  public double exactSpeed(double x, double y) {
+    double norm2 = x*x + y*y;
+    if(norm2 == 0) return 0;
+    double c = (x*wx + y*wy) / Math.sqrt(norm2);
+    if(c < -1) c = -1;
+    else if(c > 1) c = 1;
+    return speedForCos(c);
+  }
+
+  public double exactSpeedAtAngle(double angle) {
+    return speedForCos(Math.cos(angle));
+  }
+}
@@ -0,0 +1,48 @@
+package sail.sim;
+
+/**
+* Uniform grid over the 10x10 board, bucketing the targets by cell.
+*
+* Built once per game. With a cell at least as wide as the hit distance every
+* target a boat can hit this turn is in the 3x3 cells around the boat.
+*/
+class TargetGrid {
+  // beyond this the board is split coarser rather than spending megabytes on empty cells
+  private static final int MAX_SIDE = 1024;
+
+  final int side;
+  final double cell;
+  // targets of cell (gx, gy) are ids[start[gy*side + gx] .. start[gy*side + gx + 1])
+  final int[] start;
+  final int[] ids;
+
+  TargetGrid(double[] tx, double[] ty, double min_cell) {
+    // rounded down, so that cells are never narrower than min_cell
+    int n = (int) Math.floor(10 / min_cell);
+    side = Math.max(1, Math.min(n, MAX_SIDE));
+    cell = 10.0 / side;
+    start = new int[side * side + 1];
+    ids = new int[tx.length];
+    // counting sort, targets keep their index order inside a cell
+    for(int i = 0 ; i < tx.length; ++ i) {
+      ++ start[index(tx[i], ty[i]) + 1];
+    }
+    for(int c = 0 ; c < side * side; ++ c) {
+      start[c + 1] += start[c];
+    }
+    int[] fill = new int[side * side];
+    for(int i = 0 ; i < tx.length; ++ i) {
+      int c = index(tx[i], ty[i]);
+      ids[start[c] + fill[c]++] = i;
+    }
+  }
+
+  int cellOf(double v) {
+    int c = (int) (v / cell);
+    return c < 0? 0 : c >= side? side - 1 : c;
+  }
+
+  private int index(double x, double y) {
+    return cellOf(y) * side + cellOf(x);
+  }
+}
@@ -1,68 +1,309 @@
 package sail.sim;
 
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 
-class Timer extends Thread {
-
-	private boolean start = false;
-	private boolean finished = false;
-	private Callable <?> task = null;
-	private Exception error = null;
-	private Object result = null;
-	private long startTime, endTime;
-	private volatile boolean exit = false;
-	public <T> T call(Callable <T> task, long timeout) throws Exception
-	{
-		if (!isAlive())
-			throw new IllegalStateException();
-		if (task == null || timeout < 0)
-			throw new IllegalArgumentException();
-		this.task = task;
-		synchronized (this) {
-			start = true;
-			this.startTime = System.currentTimeMillis();
-			notify();
-		}
-		synchronized (this) {
-			if (finished == false)
-				try {
-					wait(timeout);
-				} catch (InterruptedException e) {}
+/**
+* Runs player calls under a time limit and measures how long they took.
+*
+* dedicated() runs the calls on a thread of its own, so a player that never
+* returns only loses its thread. The caller and the worker hand calls over with
+* park/unpark, spinning a little first when there is a spare core.
+*
+* pooled() runs every call as a task on one executor shared by all games: a
+* virtual thread per call when the JVM has them, a cached pool of daemon threads
+* otherwise. Threads follow the number of calls in flight rather than the number
+* of games, and a timed out call is interrupted and only keeps its own thread.
+*
+* sameThread() runs the calls on the caller's thread, which saves the handoff
+* but cannot take control back from a stuck player: a watchdog interrupts it
+* once the time is up and the call is then reported as timed out. Only meant
+* for trusted players.
+*
+* Every kind times a call on the thread that runs it, from right before it
+* starts to right after it returns, so handing it over is not charged to the
+* player. A call that times out is charged from when it was handed over.
+*/
+abstract class Timer implements AutoCloseable {
+
+	// a handoff usually completes in a few microseconds, no point parking before that
+	private static final int SPINS =
+		Runtime.getRuntime().availableProcessors() > 1 ? 1 << 12 : 0;
+
+	protected long startTime, endTime;
+
+	public static Timer dedicated() {
+		return new Dedicated();
+	}
+
+	public static Timer sameThread() {
+		return new SameThread();
+	}
+
+	public static Timer pooled() {
+		return new Pooled(Pooled.executor());
+	}
+
+	public static final List<String> KINDS =
+		Collections.unmodifiableList(Arrays.asList("dedicated", "pooled", "same-thread"));
+
+	// by name, one of KINDS, as given on the command line
+	public static Timer create(String kind) {
+		switch (kind) {
+			case "dedicated": return dedicated();
+			case "pooled": return pooled();
+			case "same-thread": return sameThread();
+			default: throw new IllegalArgumentException("Unknown timer: " + kind);
 		}
-		if (finished == false)
-			throw new TimeoutException();
-		finished = false;
-		if (error != null) throw error;
-		@SuppressWarnings("unchecked")
-		T result_T = (T) result;
-		return result_T;
 	}
 
-	public void run()
-	{
-		while(true) {
-			synchronized (this) {
-				if (start == false)
-					try {
-						wait();
-					} catch (InterruptedException e) {}
+	public abstract <T> T call(Callable <T> task, long timeoutNanos) throws Exception;
+
+	// how long the last call took, in ns, as charged to the player
+	public long getElapsedNanos() {
+		return endTime - startTime;
+	}
+
+	// false once a call timed out and may still be running
+	public abstract boolean isUsable();
+
+	public abstract void close();
+
+	private static final class Dedicated extends Timer implements Runnable {
+		private final Thread thread;
+		private volatile Callable <?> task = null;
+		private volatile boolean finished = false;
+		private volatile boolean exit = false;
+		private volatile Thread caller = null;
+		private Exception error = null;
+		private Object result = null;
+		// stamped by the worker around the call itself, so waking it up is not charged
+		private long callStart, callEnd;
+
+		Dedicated() {
+			thread = new Thread(this, "timer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		public <T> T call(Callable <T> task, long timeoutNanos) throws Exception
+		{
+			if (exit || !thread.isAlive())
+				throw new IllegalStateException();
+			if (task == null || timeoutNanos < 0)
+				throw new IllegalArgumentException();
+			if (this.task != null)
+				throw new IllegalStateException("previous call still running");
+			caller = Thread.currentThread();
+			finished = false;
+			long called = System.nanoTime();
+			this.task = task;
+			LockSupport.unpark(thread);
+
+			long deadline = called + timeoutNanos;
+			for (int i = 0; i < SPINS && !finished; ++i)
+				Thread.onSpinWait();
+			while (!finished) {
+				long left = deadline - System.nanoTime();
+				if (left <= 0) break;
+				LockSupport.parkNanos(this, left);
+			}
+			if (!finished) {
+				startTime = called;
+				endTime = System.nanoTime();
+				throw new TimeoutException();
 			}
-			start = false;
-			error = null;
+			startTime = callStart;
+			endTime = callEnd;
+			if (error != null) throw error;
+			@SuppressWarnings("unchecked")
+			T result_T = (T) result;
+			result = null;
+			return result_T;
+		}
+
+		public void run()
+		{
+			while (!exit) {
+				Callable <?> current = task;
+				for (int i = 0; current == null && i < SPINS; ++i) {
+					Thread.onSpinWait();
+					current = task;
+				}
+				if (current == null) {
+					LockSupport.park(this);
+					continue;
+				}
+				error = null;
+				callStart = System.nanoTime();
+				try {
+					result = current.call();
+				} catch (Exception e) {
+					error = e;
+				}
+				callEnd = System.nanoTime();
+				task = null;
+				finished = true;
+				LockSupport.unpark(caller);
+			}
+		}
+
+		public boolean isUsable() {
+			return !exit && task == null && thread.isAlive();
+		}
+
+		public void close() {
+			exit = true;
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private static final class SameThread extends Timer {
+		private volatile Thread running = null;
+		private volatile long deadline;
+		private boolean timedOut = false;
+
+		SameThread() {
+			Watchdog.register(this);
+		}
+
+		public <T> T call(Callable <T> task, long timeoutNanos) throws Exception
+		{
+			if (task == null || timeoutNanos < 0)
+				throw new IllegalArgumentException();
+			startTime = System.nanoTime();
+			deadline = startTime + timeoutNanos;
+			running = Thread.currentThread();
+			T result;
 			try {
 				result = task.call();
-			} catch (Exception e) {
-				error = e;
+			} finally {
+				// once running is null under the lock the watchdog cannot interrupt this call any more
+				synchronized (this) {
+					running = null;
+				}
+				endTime = System.nanoTime();
+				// so an interrupt it did make is not left on the simulator thread
+				Thread.interrupted();
 			}
-			synchronized (this) {
-				this.endTime = System.currentTimeMillis();
-				finished = true;
-				notify();
+			if (endTime - startTime > timeoutNanos) {
+				timedOut = true;
+				throw new TimeoutException();
+			}
+			return result;
+		}
+
+		// interrupts only while the call it found overdue is still running
+		synchronized void check(long now) {
+			Thread thread = running;
+			if (thread != null && now - deadline > 0) thread.interrupt();
+		}
+
+		public boolean isUsable() {
+			return !timedOut;
+		}
+
+		public void close() {
+			Watchdog.unregister(this);
+		}
+	}
+
+	private static final class Pooled extends Timer {
+		private static ExecutorService shared = null;
+		private final ExecutorService executor;
+
+		Pooled(ExecutorService executor) {
+			this.executor = executor;
+		}
+
+		static synchronized ExecutorService executor() {
+			if (shared == null) {
+				try {
+					shared = (ExecutorService) Executors.class
+						.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+				} catch (ReflectiveOperationException e) {
+					// no virtual threads before java 21
+					shared = Executors.newCachedThreadPool(task -> {
+						Thread thread = new Thread(task, "player");
+						thread.setDaemon(true);
+						return thread;
+					});
+				}
+			}
+			return shared;
+		}
+
+		public <T> T call(Callable <T> task, long timeoutNanos) throws Exception
+		{
+			if (task == null || timeoutNanos < 0)
+				throw new IllegalArgumentException();
+			// written by the task, so a late call cannot mess up the timing of the next one
+			long[] times = new long[2];
+			long submitted = System.nanoTime();
+			Future<T> future = executor.submit(() -> {
+				times[0] = System.nanoTime();
+				try {
+					return task.call();
+				} finally {
+					times[1] = System.nanoTime();
+				}
+			});
+			try {
+				T result = future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+				startTime = times[0];
+				endTime = times[1];
+				return result;
+			} catch (TimeoutException e) {
+				future.cancel(true);
+				startTime = submitted;
+				endTime = System.nanoTime();
+				throw e;
+			} catch (ExecutionException e) {
+				startTime = times[0];
+				endTime = times[1];
+				if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+				throw e;
+			}
+		}
+
+		public boolean isUsable() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+
+	// one thread looking after every same-thread timer, a few ms late is fine
+	private static final class Watchdog extends Thread {
+		private static final long PERIOD_MS = 5;
+		private static final Set<SameThread> timers = ConcurrentHashMap.newKeySet();
+		private static Watchdog instance = null;
+
+		static synchronized void register(SameThread timer) {
+			timers.add(timer);
+			if (instance == null) {
+				instance = new Watchdog();
+				instance.setDaemon(true);
+				instance.start();
+			}
+		}
+
+		static void unregister(SameThread timer) {
+			timers.remove(timer);
+		}
+
+		public void run()
+		{
+			while (true) {
+				try {
+					Thread.sleep(PERIOD_MS);
+				} catch (InterruptedException e) {}
+				long now = System.nanoTime();
+				for (SameThread timer : timers)
+					timer.check(now);
 			}
 		}
 	}
-	public long getElapsedTime() {
-		// System.out.println(endTime - startTime);
-        return endTime - startTime;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,208 @@
+package sail.sim;
+
+import java.util.List;
+
+/**
+* A round trip from a start through every target and back, for the times of a
+* TravelTimeMatrix. The wind makes those asymmetric, a to b upwind takes longer
+* than b to a, so every edge is costed in the direction it is sailed.
+*
+* Insertion heuristics, growing a loop that starts as just the start. The
+* NEAREST_INSERTION and FARTHEST_INSERTION ones add the target closest to or
+* farthest from the loop (either way round) at its cheapest place,
+* CHEAPEST_INSERTION adds whichever target makes the loop longer by the least.
+* The first two are O(n^2), the last O(n^3) at worst but about O(n^2) in
+* practice, tens of ms for t = 500 at most. Farthest insertion gives the
+* shortest tours: laying out the far targets first gets the shape of
+* the loop right. For random targets it is 5 to 10% shorter than the others
+* and than going to the nearest target each time.
+*
+* The budget is in ns of wall clock. Once it runs out the targets still left
+* are inserted at their cheapest place in index order, that is O(n^2) too and
+* quick, so build always returns a whole tour.
+*
+* E.g. in init:
+*   TourBuilder tours = new TourBuilder(start, targets, travelTimeMatrix(), travel_times);
+*   int[] order = tours.build(TourBuilder.Construction.FARTHEST_INSERTION, 100000000);
+*/
+public final class TourBuilder {
+  public enum Construction {
+    NEAREST_INSERTION, FARTHEST_INSERTION, CHEAPEST_INSERTION
+  }
+
+  private final int n;
+  // time from i to j for the targets and the start as node n, row-major
+  final double[] cost;
+
+  /**
+  * from_start[i] is the time from the start to target i and to_start[i] the
+  * time back, for every target of the matrix.
+  */
+  public TourBuilder(TravelTimeMatrix times, double[] from_start, double[] to_start) {
+    n = times.size();
+    if(from_start.length < n || to_start.length < n) {
+      throw new IllegalArgumentException("Need the times to and from the start for all " + n + " targets");
+    }
+    int m = n + 1;
+    cost = new double[m * m];
+    double[] row = new double[n];
+    for(int i = 0 ; i < n; ++ i) {
+      times.row(i, row);
+      System.arraycopy(row, 0, cost, i*m, n);
+      cost[i*m + n] = to_start[i];
+      cost[n*m + i] = from_start[i];
+    }
+  }
+
+  public TourBuilder(Point start, List<Point> targets, TravelTimeMatrix times, TravelTimes travel_times) {
+    this(times, fromStart(start, targets, travel_times), toStart(start, targets, travel_times));
+  }
+
+  static double[] fromStart(Point start, List<Point> targets, TravelTimes travel_times) {
+    double[] out = new double[targets.size()];
+    travel_times.times(start, targets, out);
+    return out;
+  }
+
+  static double[] toStart(Point start, List<Point> targets, TravelTimes travel_times) {
+    double[] out = new double[targets.size()];
+    for(int i = 0 ; i < out.length; ++ i) {
+      out[i] = travel_times.time(targets.get(i), start);
+    }
+    return out;
+  }
+
+  // number of targets, also the node number of the start in time
+  public int size() {
+    return n;
+  }
+
+  // between targets, or the start if an index is size()
+  public double time(int from, int to) {
+    return cost[from*(n + 1) + to];
+  }
+
+  // the whole round trip of a tour as build returns it, in order of the targets
+  public double time(int[] tour) {
+    int at = n;
+    double total = 0;
+    for(int target : tour) {
+      total += time(at, target);
+      at = target;
+    }
+    return total + time(at, n);
+  }
+
+  // the targets in the order to visit them, the start is not in it
+  public int[] build(Construction construction, long budget_ns) {
+    long started = System.nanoTime();
+    int[] next = new int[n + 1];
+    boolean[] in_tour = new boolean[n + 1];
+    next[n] = n;
+    in_tour[n] = true;
+    if(construction == Construction.CHEAPEST_INSERTION) {
+      cheapestInsertion(next, in_tour, started, budget_ns);
+    } else {
+      nearestInsertion(next, in_tour, construction == Construction.FARTHEST_INSERTION, started, budget_ns);
+    }
+    // out of time, the rest where they fit best
+    for(int u = 0 ; u < n; ++ u) {
+      if(!in_tour[u]) {
+        insert(next, bestTail(next, u), u);
+        in_tour[u] = true;
+      }
+    }
+    int[] tour = new int[n];
+    int at = next[n];
+    for(int i = 0 ; i < n; ++ i) {
+      tour[i] = at;
+      at = next[at];
+    }
+    return tour;
+  }
+
+  // by distance to the loop, the nearest or the farthest first
+  private void nearestInsertion(int[] next, boolean[] in_tour, boolean farthest, long started, long budget_ns) {
+    int m = n + 1;
+    double[] near = new double[n];
+    for(int u = 0 ; u < n; ++ u) {
+      near[u] = Math.min(cost[n*m + u], cost[u*m + n]);
+    }
+    for(int added = 0 ; added < n; ++ added) {
+      if(System.nanoTime() - started > budget_ns) return;
+      int best = -1;
+      for(int u = 0 ; u < n; ++ u) {
+        if(!in_tour[u] && (best < 0 || (farthest? near[u] > near[best] : near[u] < near[best]))) best = u;
+      }
+      insert(next, bestTail(next, best), best);
+      in_tour[best] = true;
+      for(int u = 0 ; u < n; ++ u) {
+        if(in_tour[u]) continue;
+        near[u] = Math.min(near[u], Math.min(cost[best*m + u], cost[u*m + best]));
+      }
+    }
+  }
+
+  private void cheapestInsertion(int[] next, boolean[] in_tour, long started, long budget_ns) {
+    int m = n + 1;
+    // for each target left the cheapest edge to split, by its tail, and what that adds
+    int[] tail = new int[n];
+    double[] added_cost = new double[n];
+    for(int u = 0 ; u < n; ++ u) {
+      tail[u] = n;
+      added_cost[u] = cost[n*m + u] + cost[u*m + n];
+    }
+    for(int added = 0 ; added < n; ++ added) {
+      if(System.nanoTime() - started > budget_ns) return;
+      int best = -1;
+      for(int u = 0 ; u < n; ++ u) {
+        if(!in_tour[u] && (best < 0 || added_cost[u] < added_cost[best])) best = u;
+      }
+      int a = tail[best], b = next[a];
+      insert(next, a, best);
+      in_tour[best] = true;
+      // a -> b became a -> best -> b, only who wanted a -> b has to look again
+      for(int u = 0 ; u < n; ++ u) {
+        if(in_tour[u]) continue;
+        if(tail[u] == a) {
+          tail[u] = bestTail(next, u);
+          added_cost[u] = insertionCost(next, tail[u], u);
+          continue;
+        }
+        double via_a = insertionCost(next, a, u), via_best = insertionCost(next, best, u);
+        if(via_a < added_cost[u]) {
+          tail[u] = a;
+          added_cost[u] = via_a;
+        }
+        if(via_best < added_cost[u]) {
+          tail[u] = best;
+          added_cost[u] = via_best;
+        }
+      }
+    }
+  }
+
+  private double insertionCost(int[] next, int a, int u) {
+    int m = n + 1, b = next[a];
+    return cost[a*m + u] + cost[u*m + b] - cost[a*m + b];
+  }
+
+  // the node after which u adds the least
+  private int bestTail(int[] next, int u) {
+    int best = n;
+    double best_cost = insertionCost(next, n, u);
+    for(int a = next[n]; a != n; a = next[a]) {
+      double c = insertionCost(next, a, u);
+      if(c < best_cost) {
+        best_cost = c;
+        best = a;
+      }
+    }
+    return best;
+  }
+
+  private static void insert(int[] next, int a, int u) {
+    next[u] = next[a];
+    next[a] = u;
+  }
+}
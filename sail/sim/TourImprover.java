@@ -0,0 +1,236 @@
+package sail.sim;
+
+import java.util.Arrays;
+
+/**
+* Local search on a round trip from the start, for the times of a TourBuilder.
+*
+* Two kinds of moves, both asymmetric aware:
+* 2-opt takes out two edges and reconnects the tour by reversing what was
+* between them. Every edge of the reversed stretch is then sailed the other
+* way, that is paid for too, from prefix sums of the tour both ways round.
+* Or-opt moves a stretch of 1 to 3 targets elsewhere, either way round.
+*
+* Only moves that make a new edge to one of the k nearest targets (either way
+* round) of a target are tried, and a target whose moves found nothing is not
+* looked at again until a move changes one of its edges (don't look bits).
+* Applying a move is O(n), finding one O(k). At t = 500 a tour built by
+* insertion or from an MST walk settles in some tens of ms.
+*
+* The budget is in ns of wall clock, improve returns the best tour so far when
+* it runs out. The tour can be of any subset of the targets, in any order.
+*
+* E.g. after TourBuilder:
+*   int[] better = new TourImprover(tours).improve(order, 100000000);
+*/
+public final class TourImprover {
+  public static final int DEFAULT_NEIGHBORS = 8;
+  // smaller gains are rounding
+  private static final double EPSILON = 1e-9;
+
+  private final TourBuilder tours;
+  private final int n, k;
+  // the k nearest of every node, the start being node n
+  private final int[] neighbors;
+
+  // the tour being improved: t[0] and t[m + 1] are the start, pos[node] where it is, -1 if not in it
+  private int m;
+  private int[] t, pos;
+  // along the tour up to position i, sailed forwards and backwards
+  private double[] forward, backward;
+  private int[] queue;
+  private boolean[] queued;
+  private int head, tail, queued_count;
+
+  public TourImprover(TourBuilder tours) {
+    this(tours, DEFAULT_NEIGHBORS);
+  }
+
+  public TourImprover(TourBuilder tours, int k) {
+    if(k < 1) {
+      throw new IllegalArgumentException("Need at least one neighbor: " + k);
+    }
+    this.tours = tours;
+    this.n = tours.size();
+    this.k = Math.min(k, n);
+    neighbors = new int[(n + 1) * this.k];
+    double[] near = new double[this.k];
+    for(int u = 0 ; u <= n; ++ u) {
+      // insertion sort into the k best so far
+      int found = 0;
+      for(int v = 0 ; v <= n; ++ v) {
+        if(v == u) continue;
+        double d = tours.time(u, v) + tours.time(v, u);
+        if(found == this.k && d >= near[found - 1]) continue;
+        int i = found < this.k? found ++ : found - 1;
+        while(i > 0 && near[i - 1] > d) {
+          near[i] = near[i - 1];
+          neighbors[u*this.k + i] = neighbors[u*this.k + i - 1];
+          -- i;
+        }
+        near[i] = d;
+        neighbors[u*this.k + i] = v;
+      }
+    }
+  }
+
+  // a tour no longer than tour, in a new array, tour itself is left alone
+  public int[] improve(int[] tour, long budget_ns) {
+    return improve(tour, null, budget_ns);
+  }
+
+  /**
+  * The same, only starting from the targets in around instead of all of them,
+  * e.g. the ends of the stretches a tour was changed at. Others are looked at
+  * once a move changes one of their edges.
+  */
+  public int[] improve(int[] tour, int[] around, long budget_ns) {
+    long started = System.nanoTime();
+    m = tour.length;
+    t = new int[m + 2];
+    pos = new int[n + 1];
+    Arrays.fill(pos, -1);
+    t[0] = t[m + 1] = n;
+    for(int i = 0 ; i < m; ++ i) {
+      if(tour[i] < 0 || tour[i] >= n || pos[tour[i]] >= 0) {
+        throw new IllegalArgumentException("Not a tour of distinct targets: " + tour[i] + " at " + i);
+      }
+      t[i + 1] = tour[i];
+      pos[tour[i]] = i + 1;
+    }
+    pos[n] = 0;
+    forward = new double[m + 2];
+    backward = new double[m + 2];
+    sums();
+    queue = new int[n + 1];
+    queued = new boolean[n + 1];
+    head = tail = queued_count = 0;
+    if(around == null) {
+      for(int i = 0 ; i <= m; ++ i) {
+        push(t[i]);
+      }
+    } else {
+      for(int u : around) {
+        if(pos[u] >= 0) push(u);
+      }
+    }
+    while(queued_count > 0 && System.nanoTime() - started <= budget_ns) {
+      int a = queue[head];
+      head = (head + 1) % queue.length;
+      -- queued_count;
+      queued[a] = false;
+      if(twoOpt(a) || orOpt(a)) push(a);
+    }
+    return Arrays.copyOfRange(t, 1, m + 1);
+  }
+
+  private void push(int u) {
+    if(queued[u]) return;
+    queued[u] = true;
+    queue[tail] = u;
+    tail = (tail + 1) % queue.length;
+    ++ queued_count;
+  }
+
+  private void sums() {
+    for(int i = 0 ; i <= m; ++ i) {
+      forward[i + 1] = forward[i] + tours.time(t[i], t[i + 1]);
+      backward[i + 1] = backward[i] + tours.time(t[i + 1], t[i]);
+    }
+  }
+
+  // what turning positions p .. q (1 <= p < q <= m) round changes
+  private double reversalGain(int p, int q) {
+    int a = t[p - 1], b = t[p], c = t[q], d = t[q + 1];
+    return tours.time(a, b) + tours.time(c, d) - tours.time(a, c) - tours.time(b, d)
+      + (forward[q] - forward[p]) - (backward[q] - backward[p]);
+  }
+
+  private boolean twoOpt(int a) {
+    int i = pos[a];
+    for(int x = 0 ; x < k; ++ x) {
+      int c = neighbors[a*k + x], j = pos[c];
+      if(j <= 0) continue;
+      // a -> c, or c -> a
+      int p = j > i? i + 1 : j, q = j > i? j : i - 1;
+      if(q - p < 1) continue;
+      if(reversalGain(p, q) > EPSILON) {
+        push(t[p - 1]);
+        push(t[p]);
+        push(t[q]);
+        push(t[q + 1]);
+        reverse(p, q);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void reverse(int p, int q) {
+    for(int i = p, j = q; i < j; ++ i, -- j) {
+      int u = t[i];
+      t[i] = t[j];
+      t[j] = u;
+    }
+    for(int i = p ; i <= q; ++ i) {
+      pos[t[i]] = i;
+    }
+    sums();
+  }
+
+  private boolean orOpt(int a) {
+    int i = pos[a];
+    if(i == 0) return false;
+    for(int length = 1 ; length <= 3 && i + length - 1 <= m; ++ length) {
+      int last = i + length - 1;
+      int s = t[i], e = t[last], before = t[i - 1], after = t[last + 1];
+      double taken_out = tours.time(before, s) + tours.time(e, after) - tours.time(before, after);
+      double turned = (backward[last] - backward[i]) - (forward[last] - forward[i]);
+      for(int x = 0 ; x < k; ++ x) {
+        int c = neighbors[s*k + x], j = pos[c];
+        if(j < 0) continue;
+        // c -> s ... e as it is, or e ... s -> c turned round; by the edge it goes into
+        for(int way = 0 ; way < 2; ++ way) {
+          boolean reversed = way == 1;
+          int edge = reversed? (j == 0? m : j - 1) : j;
+          if(edge >= i - 1 && edge <= last) continue;
+          int u = t[edge], v = t[edge + 1];
+          double put_in = reversed?
+            tours.time(u, e) + tours.time(s, v) - tours.time(u, v) + turned :
+            tours.time(u, s) + tours.time(e, v) - tours.time(u, v);
+          if(taken_out - put_in > EPSILON) {
+            push(before);
+            push(after);
+            push(s);
+            push(e);
+            push(u);
+            push(v);
+            move(i, last, edge, reversed);
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  // positions from .. to after the edge at position edge, turned round or not
+  private void move(int from, int to, int edge, boolean reversed) {
+    int[] moved = new int[m + 2];
+    int at = 0;
+    for(int i = 0 ; i <= m + 1; ++ i) {
+      if(i >= from && i <= to) continue;
+      moved[at ++] = t[i];
+      if(i == edge) {
+        for(int x = 0 ; x <= to - from; ++ x) {
+          moved[at ++] = t[reversed? to - x : from + x];
+        }
+      }
+    }
+    t = moved;
+    for(int i = 0 ; i <= m; ++ i) {
+      pos[t[i]] = i;
+    }
+    sums();
+  }
+}
@@ -0,0 +1,241 @@
+package sail.sim;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+* Runs a whole grid of games (seeds x configurations) inside one JVM.
+*
+* Player classes are loaded (and compiled if needed) once, every game gets fresh
+* player instances, and one CSV line per game is written to stdout. With -j N the
+* games are spread over N worker threads, every game keeping its own state.
+*
+* E.g: java sail.sim.TournamentRunner -g 6 g1 g2 g3 g4 g5 g6 -R 1234 1000
+*        -c 5:0.004:1000 -c 25:0.004:2500 -c 100:0.004:10000 -c 500:0.004:50000
+*/
+public class TournamentRunner {
+  private static String[] groups;
+  private static List<Long> seeds = new ArrayList<Long>();
+  private static List<Integer> targets = new ArrayList<Integer>();
+  private static List<Double> timesteps = new ArrayList<Double>();
+  private static List<Long> time_limits = new ArrayList<Long>();
+  // explicit (t, dt, tl) combinations, used instead of the -t/-dt/-tl grid when given
+  private static List<String[]> configs = new ArrayList<String[]>();
+  // the kth configuration plays every seed plus k times this, so configurations can get seeds of their own
+  private static long config_seed_offset = 0;
+  private static int threads = 1;
+  private static String timer_kind = "dedicated";
+  private static boolean phase_times = false;
+  // one replay per game goes here when set, named <seed>-<t>-<dt>-<tl>.replay
+  private static String replay_dir = null;
+  // stream games to a browser, one at a time, without slowing them down
+  private static boolean watch = false;
+
+  public static void main(String[] args) throws Exception {
+    parseArgs(args);
+    if(groups == null || seeds.isEmpty() || (configs.isEmpty() && targets.isEmpty())) {
+      throw new IllegalArgumentException("Missing groups, seeds or targets");
+    }
+    if(configs.isEmpty()) {
+      if(timesteps.isEmpty()) timesteps.add(0.015);
+      if(time_limits.isEmpty()) time_limits.add(1000L);
+      for(int t : targets)
+        for(double dt : timesteps)
+          for(long tl : time_limits)
+            configs.add(new String[] {"" + t, "" + dt, "" + tl});
+    }
+    int numgroups = groups.length;
+
+    // the players are chatty, only the results go to the real stdout
+    PrintStream results = System.out;
+    System.setOut(new NullPrintStream());
+
+    Map<String, Class<Player>> loaded = new HashMap<String, Class<Player>>();
+    List<Class<Player>> player_class = new ArrayList<Class<Player>>();
+    for(String group : groups) {
+      if(!loaded.containsKey(group)) {
+        loaded.put(group, Simulator.loadPlayer(group, false));
+      }
+      player_class.add(loaded.get(group));
+    }
+
+    // games run independently, one per worker, and every worker keeps its own timers
+    ExecutorService pool = Executors.newWorkStealingPool(threads);
+    Set<Timer[]> all_timers = ConcurrentHashMap.newKeySet();
+    ThreadLocal<Timer[]> worker_timers = ThreadLocal.withInitial(() -> {
+      Timer[] timers = new Timer[numgroups];
+      for(int i = 0; i < numgroups; ++ i) {
+        timers[i] = Timer.create(timer_kind);
+      }
+      all_timers.add(timers);
+      return timers;
+    });
+    PrintStream sink = new NullPrintStream();
+    // a game is shown if no other game is on when it starts
+    HTTPServer watch_server = watch? new HTTPServer(Simulator.webRoot()) : null;
+    AtomicBoolean watching = new AtomicBoolean(false);
+    if(watch_server != null) {
+      System.err.println("Watch at http://localhost:" + watch_server.port() + "/");
+    }
+    List<Future<GameResult>> games = new ArrayList<Future<GameResult>>();
+    for(long first_seed : seeds) {
+      for(int k = 0 ; k < configs.size(); ++ k) {
+        String[] config = configs.get(k);
+        long seed = first_seed + k * config_seed_offset;
+        int t = Integer.parseInt(config[0]);
+        double dt = Double.parseDouble(config[1]);
+        long tl = Long.parseLong(config[2]);
+        games.add(pool.submit(() -> {
+          Player[] players = new Player[numgroups];
+          for(int i = 0 ; i < numgroups; ++ i) {
+            players[i] = player_class.get(i).getDeclaredConstructor().newInstance();
+          }
+          Timer[] timers = worker_timers.get();
+          GameResult result = null;
+          try {
+            Simulator sim = new Simulator(groups, t, dt, tl, sink);
+            if(replay_dir != null) {
+              sim.setReplayFile(
+                new File(replay_dir, seed + "-" + t + "-" + dt + "-" + tl + ".replay").getPath()
+              );
+            }
+            if(watch_server != null && watching.compareAndSet(false, true)) {
+              sim.watch(watch_server, () -> watching.set(false));
+            }
+            result = sim.play(timers, players, seed);
+          } catch (Exception ex) {
+            System.err.println(
+              "Game failed (--seed " + seed + " -t " + t + " -dt " + dt + " -tl " + tl + ")"
+            );
+            ex.printStackTrace();
+          }
+          // a player out of time may still be stuck inside its last call, so its
+          // timer cannot be trusted for the next game
+          for(int i = 0 ; i < numgroups; ++ i) {
+            if(result == null || result.time_remaining_ns[i] <= 0 || !timers[i].isUsable()) {
+              timers[i].close();
+              timers[i] = Timer.create(timer_kind);
+            }
+          }
+          return result;
+        }));
+      }
+    }
+
+    // results are printed in submission order, whatever order the games finish in
+    results.println(GameResult.csvHeader(numgroups, phase_times));
+    for(Future<GameResult> game : games) {
+      GameResult result = game.get();
+      if(result == null) continue;
+      results.println(result.toCsv(phase_times));
+      results.flush();
+    }
+    pool.shutdown();
+    if(watch_server != null) {
+      // the last game may still be on its way out
+      while(watching.get()) Thread.sleep(10);
+      watch_server.close();
+    }
+    // every thread left is a daemon, so once the timers are closed the JVM can end
+    for(Timer[] timers : all_timers) {
+      for(Timer timer : timers) {
+        timer.close();
+      }
+    }
+  }
+
+  private static void parseArgs(String[] args) {
+    for(int i = 0; i < args.length; ++i) {
+
+      if (args[i].equals("-g") || args[i].equals("--groups")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing number of groups");
+        }
+        int numgroups = Integer.parseInt(args[++i]);
+        if(numgroups <= 0 || numgroups >= 1000) {
+          throw new IllegalArgumentException("numgroups <=0 or >= 1000");
+        }
+        if (i + numgroups >= args.length) {
+          throw new IllegalArgumentException("Missing player packages");
+        }
+        groups = new String[numgroups];
+        for(int j = 0 ; j < numgroups; ++j) {
+          groups[j] = args[++i];
+        }
+      } else if (args[i].equals("-S") || args[i].equals("--seeds")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing seeds");
+        }
+        for(String s : args[++i].split(",")) seeds.add(Long.parseLong(s.trim()));
+      } else if (args[i].equals("-R") || args[i].equals("--seed-range")) {
+        if (i + 2 >= args.length) {
+          throw new IllegalArgumentException("Missing seed range start or count");
+        }
+        long start = Long.parseLong(args[++i]);
+        int count = Integer.parseInt(args[++i]);
+        for(int j = 0 ; j < count; ++j) seeds.add(start + j);
+      } else if (args[i].equals("-t") || args[i].equals("--targets")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing number of targets");
+        }
+        for(String s : args[++i].split(",")) targets.add(Integer.parseInt(s.trim()));
+      } else if (args[i].equals("-dt") || args[i].equals("--timestep")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing time step");
+        }
+        for(String s : args[++i].split(",")) timesteps.add(Double.parseDouble(s.trim()));
+      } else if (args[i].equals("-tl") || args[i].equals("--timelimit")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing time limit");
+        }
+        for(String s : args[++i].split(",")) time_limits.add(Long.parseLong(s.trim()));
+      } else if (args[i].equals("-c") || args[i].equals("--config")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing configuration");
+        }
+        String[] config = args[++i].split(":");
+        if (config.length != 3) {
+          throw new IllegalArgumentException("Configuration must be t:dt:tl, got " + args[i]);
+        }
+        configs.add(config);
+      } else if (args[i].equals("--config-seed-offset")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing configuration seed offset");
+        }
+        config_seed_offset = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-j") || args[i].equals("--threads")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing number of threads");
+        }
+        threads = Integer.parseInt(args[++i]);
+        if(threads <= 0) {
+          threads = Runtime.getRuntime().availableProcessors();
+        }
+      } else if (args[i].equals("--timer")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing timer kind");
+        }
+        timer_kind = args[++i];
+        if (!Timer.KINDS.contains(timer_kind)) {
+          throw new IllegalArgumentException("Unknown timer: " + timer_kind);
+        }
+      } else if (args[i].equals("--same-thread")) {
+        timer_kind = "same-thread";
+      } else if (args[i].equals("--phase-times")) {
+        phase_times = true;
+      } else if (args[i].equals("--watch")) {
+        watch = true;
+      } else if (args[i].equals("--replay-dir")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing replay directory");
+        }
+        replay_dir = args[++i];
+      } else {
+        throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+  }
+}
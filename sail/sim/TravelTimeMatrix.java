@@ -0,0 +1,128 @@
+package sail.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+* Least sailing times between every pair of a set of points, see TravelTimes.
+*
+* Kept in one flat row-major array, time(i, j) is entry i*n + j, in doubles or
+* in floats for half the memory (about 1e-7 relative error). build computes it
+* on the calling thread, so all of it is on the caller's clock. A matrix never
+* changes once built, toArray hands out a copy.
+*
+* The simulator builds one for the targets of each game before init, on no
+* player's clock, and Player.travelTimeMatrix returns it: at t = 500 that is
+* 250k entries once per game instead of once per player. Those rows are
+* computed in parallel on a pool of its own, one thread per core at most
+* however many games are played at the same time.
+*/
+public final class TravelTimeMatrix {
+  private final int n;
+  private final double[] times;
+  private final float[] times_f;
+
+  private TravelTimeMatrix(int n, double[] times, float[] times_f) {
+    this.n = n;
+    this.times = times;
+    this.times_f = times_f;
+  }
+
+  public static TravelTimeMatrix build(List<Point> points, Point wind_direction, boolean single_precision) {
+    return build(points, new TravelTimes(wind_direction), single_precision);
+  }
+
+  public static TravelTimeMatrix build(List<Point> points, TravelTimes travel_times, boolean single_precision) {
+    TravelTimeMatrix matrix = allocate(points.size(), single_precision);
+    matrix.fill(coordinates(points), travel_times, 0, matrix.n);
+    return matrix;
+  }
+
+  private static ForkJoinPool pool = null;
+
+  private static synchronized ForkJoinPool pool() {
+    // worker threads are daemons, nothing to shut down
+    if(pool == null) pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    return pool;
+  }
+
+  // the simulator's, rows in parallel on the pool
+  static TravelTimeMatrix buildForGame(List<Point> points, Point wind_direction) {
+    TravelTimes travel_times = new TravelTimes(wind_direction);
+    TravelTimeMatrix matrix = allocate(points.size(), false);
+    double[] xy = coordinates(points);
+    int n = matrix.n, parallelism = pool().getParallelism();
+    int chunk = Math.max(1, (n + 4 * parallelism - 1) / (4 * parallelism));
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for(int from = 0 ; from < n; from += chunk) {
+      int first = from, last = Math.min(n, from + chunk);
+      tasks.add(() -> {
+        matrix.fill(xy, travel_times, first, last);
+        return null;
+      });
+    }
+    pool().invokeAll(tasks);
+    return matrix;
+  }
+
+  private static TravelTimeMatrix allocate(int n, boolean single_precision) {
+    return new TravelTimeMatrix(
+      n, single_precision? null : new double[n * n], single_precision? new float[n * n] : null
+    );
+  }
+
+  private static double[] coordinates(List<Point> points) {
+    double[] xy = new double[2 * points.size()];
+    for(int i = 0 ; i < points.size(); ++ i) {
+      xy[2*i] = points.get(i).x;
+      xy[2*i + 1] = points.get(i).y;
+    }
+    return xy;
+  }
+
+  // rows from .. to - 1
+  private void fill(double[] xy, TravelTimes travel_times, int from, int to) {
+    for(int i = from ; i < to; ++ i) {
+      double x = xy[2*i], y = xy[2*i + 1];
+      for(int j = 0 ; j < n; ++ j) {
+        double time = travel_times.time(x, y, xy[2*j], xy[2*j + 1]);
+        if(times != null) times[i*n + j] = time;
+        else times_f[i*n + j] = (float) time;
+      }
+    }
+  }
+
+  public int size() {
+    return n;
+  }
+
+  public boolean isSinglePrecision() {
+    return times_f != null;
+  }
+
+  public double time(int from, int to) {
+    if(from < 0 || from >= n || to < 0 || to >= n) {
+      throw new IndexOutOfBoundsException(from + " -> " + to + " of " + n);
+    }
+    return times != null? times[from*n + to] : times_f[from*n + to];
+  }
+
+  // times from one point to all, into out[0 .. size)
+  public void row(int from, double[] out) {
+    if(from < 0 || from >= n) throw new IndexOutOfBoundsException("row " + from + " of " + n);
+    for(int j = 0 ; j < n; ++ j) {
+      out[j] = times != null? times[from*n + j] : times_f[from*n + j];
+    }
+  }
+
+  // a copy of the whole matrix, row-major
+  public double[] toArray() {
+    double[] copy = new double[n * n];
+    for(int i = 0 ; i < copy.length; ++ i) {
+      copy[i] = times != null? times[i] : times_f[i];
+    }
+    return copy;
+  }
+}
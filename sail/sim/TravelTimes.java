@@ -0,0 +1,87 @@
+package sail.sim;
+
+import java.util.List;
+
+/**
+* The least time to sail from one point to another.
+*
+* Distance over Simulator.getSpeed of the straight line is what sailing straight
+* takes, but about straight down or up wind tacking is faster, see HeadingSolver:
+* dead downwind by 5%, dead upwind by 26%. A planner that ranks targets by the
+* straight line time puts those legs off for no reason.
+*
+* The board does not make a leg slower. Tacks can be switched every move at no
+* cost and sailed in any order, so a tack stays within a move of the straight
+* line between two points on the board. The two leg version, one switch, has a
+* corner that can be off the board, waypoint only returns a corner that is not.
+*
+* E.g. from here to every target at once:
+*   travel_times.times(me.x, me.y, target_xy, t, times);
+*/
+public final class TravelTimes {
+  private final HeadingSolver solver;
+  private final HeadingSolver.Plan plan = new HeadingSolver.Plan();
+
+  public TravelTimes(Point wind_direction) {
+    this(new HeadingSolver(wind_direction));
+  }
+
+  public TravelTimes(HeadingSolver solver) {
+    this.solver = solver;
+  }
+
+  public HeadingSolver solver() {
+    return solver;
+  }
+
+  public double time(double ax, double ay, double bx, double by) {
+    return solver.time(bx - ax, by - ay);
+  }
+
+  public double time(Point from, Point to) {
+    return solver.time(to.x - from.x, to.y - from.y);
+  }
+
+  // from (x, y) to each of the first count points of xy, interleaved as in PointMath
+  public void times(double x, double y, double[] xy, int count, double[] out) {
+    for(int i = 0 ; i < count; ++ i) {
+      out[i] = solver.time(xy[2*i] - x, xy[2*i + 1] - y);
+    }
+  }
+
+  public void times(Point from, List<Point> to, double[] out) {
+    for(int i = 0 ; i < to.size(); ++ i) {
+      Point p = to.get(i);
+      out[i] = solver.time(p.x - from.x, p.y - from.y);
+    }
+  }
+
+  /**
+  * Where to switch tacks going from a to b with a single switch, into out[at],
+  * out[at + 1]. False if going straight is as fast or both corners are off the
+  * board, then HeadingSolver.heading every move gets there as fast.
+  * Not thread safe, the plan is reused.
+  */
+  public boolean waypoint(double ax, double ay, double bx, double by, double[] out, int at) {
+    if(!solver.plan(bx - ax, by - ay, plan)) return false;
+    double speed = solver.tackSpeed(plan.upwind);
+    // the first leg on either tack
+    double x1 = ax + plan.x1 * speed * plan.time1, y1 = ay + plan.y1 * speed * plan.time1;
+    double x2 = ax + plan.x2 * speed * plan.time2, y2 = ay + plan.y2 * speed * plan.time2;
+    if(onBoard(x1, y1)) {
+      out[at] = x1;
+      out[at + 1] = y1;
+      return true;
+    }
+    if(onBoard(x2, y2)) {
+      out[at] = x2;
+      out[at + 1] = y2;
+      return true;
+    }
+    return false;
+  }
+
+  private static boolean onBoard(double x, double y) {
+    return x >= 0 && x <= 10 && y >= 0 && y <= 10;
+  }
+}
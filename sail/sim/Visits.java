@@ -0,0 +1,206 @@
+package sail.sim;
+
+import java.util.*;
+
+/**
+* Read-only view of which player visited which target, kept by the simulator as
+* one bitset per player plus a visit count per target.
+*
+* isVisited, visitCount and visitedCount are O(1) and allocation free. asMap gives
+* the same state as the old Map<Integer, Set<Integer>> for players that still
+* use it, backed by the bitsets so nothing is copied.
+*
+* The visits that happened in the last turn are also kept, in the order they
+* were scored, so players can update their own bookkeeping in O(changes):
+*   for(int k = 0 ; k < visits.turnVisitCount(); ++ k)
+*     ... visits.turnVisitPlayer(k), visits.turnVisitTarget(k) ...
+*/
+public class Visits {
+  private final int players;
+  private final int targets;
+  private final int words;
+  // bits[player*words + (target >> 6)] has bit target set once player visited target
+  private final long[] bits;
+  private final int[] target_count;
+  private final int[] player_count;
+  private final Map<Integer, Set<Integer>> map_view;
+  // (player, target) visits of the last turn
+  private int[] turn_players;
+  private int[] turn_targets;
+  private int turn_visits;
+
+  Visits(int players, int targets) {
+    this.players = players;
+    this.targets = targets;
+    this.words = (targets + 63) >>> 6;
+    this.bits = new long[players * words];
+    this.target_count = new int[targets];
+    this.player_count = new int[players];
+    Map<Integer, Set<Integer>> map = new HashMap<>();
+    for(int i = 0 ; i < players; ++ i) {
+      map.put(i, new PlayerSet(i));
+    }
+    this.map_view = Collections.unmodifiableMap(map);
+    this.turn_players = new int[Math.max(1, players)];
+    this.turn_targets = new int[Math.max(1, players)];
+  }
+
+  void startTurn() {
+    turn_visits = 0;
+  }
+
+  // returns false if the player had already visited the target
+  boolean visit(int player, int target) {
+    int w = player*words + (target >>> 6);
+    long bit = 1L << target;
+    if((bits[w] & bit) != 0) return false;
+    bits[w] |= bit;
+    ++ target_count[target];
+    ++ player_count[player];
+    if(turn_visits == turn_players.length) {
+      turn_players = Arrays.copyOf(turn_players, 2 * turn_visits);
+      turn_targets = Arrays.copyOf(turn_targets, 2 * turn_visits);
+    }
+    turn_players[turn_visits] = player;
+    turn_targets[turn_visits] = target;
+    ++ turn_visits;
+    return true;
+  }
+
+  // replaces every visit with the given bitsets, laid out as bits is (replay keyframes)
+  void load(long[] from) {
+    System.arraycopy(from, 0, bits, 0, bits.length);
+    Arrays.fill(target_count, 0);
+    for(int i = 0 ; i < players; ++ i) {
+      int count = 0;
+      for(int w = 0 ; w < words; ++ w) {
+        long word = bits[i*words + w];
+        count += Long.bitCount(word);
+        for(; word != 0; word &= word - 1) {
+          ++ target_count[(w << 6) + Long.numberOfTrailingZeros(word)];
+        }
+      }
+      player_count[i] = count;
+    }
+    turn_visits = 0;
+  }
+
+  public int numPlayers() {
+    return players;
+  }
+
+  public int numTargets() {
+    return targets;
+  }
+
+  public boolean isVisited(int player, int target) {
+    return (bits[player*words + (target >>> 6)] & (1L << target)) != 0;
+  }
+
+  // how many players visited the target
+  public int visitCount(int target) {
+    return target_count[target];
+  }
+
+  // how many targets the player visited
+  public int visitedCount(int player) {
+    return player_count[player];
+  }
+
+  // how many (player, target) visits happened in the last turn
+  public int turnVisitCount() {
+    return turn_visits;
+  }
+
+  public int turnVisitPlayer(int k) {
+    if(k >= turn_visits) throw new IndexOutOfBoundsException("" + k);
+    return turn_players[k];
+  }
+
+  public int turnVisitTarget(int k) {
+    if(k >= turn_visits) throw new IndexOutOfBoundsException("" + k);
+    return turn_targets[k];
+  }
+
+  // first target >= from the player hasn't visited, -1 if there is none
+  public int nextUnvisited(int player, int from) {
+    return next(player, from, true);
+  }
+
+  // first target >= from the player has visited, -1 if there is none
+  public int nextVisited(int player, int from) {
+    return next(player, from, false);
+  }
+
+  private int next(int player, int from, boolean unvisited) {
+    if(from >= targets) return -1;
+    int base = player*words;
+    int w = from >>> 6;
+    long word = (unvisited? ~bits[base + w] : bits[base + w]) & (-1L << from);
+    while(true) {
+      if(word != 0) {
+        int target = (w << 6) + Long.numberOfTrailingZeros(word);
+        return target < targets? target : -1;
+      }
+      if(++ w == words) return -1;
+      word = unvisited? ~bits[base + w] : bits[base + w];
+    }
+  }
+
+  public PrimitiveIterator.OfInt unvisitedIterator(int player) {
+    return iterator(player, true);
+  }
+
+  public PrimitiveIterator.OfInt visitedIterator(int player) {
+    return iterator(player, false);
+  }
+
+  private PrimitiveIterator.OfInt iterator(int player, boolean unvisited) {
+    return new PrimitiveIterator.OfInt() {
+      private int next = Visits.this.next(player, 0, unvisited);
+
+      public boolean hasNext() {
+        return next != -1;
+      }
+
+      public int nextInt() {
+        if(next == -1) throw new NoSuchElementException();
+        int current = next;
+        next = Visits.this.next(player, current + 1, unvisited);
+        return current;
+      }
+    };
+  }
+
+  /**
+  * The legacy view, asMap().get(i) is the set of targets that the ith player has visited.
+  */
+  public Map<Integer, Set<Integer>> asMap() {
+    return map_view;
+  }
+
+  private class PlayerSet extends AbstractSet<Integer> {
+    private final int player;
+
+    PlayerSet(int player) {
+      this.player = player;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if(!(o instanceof Integer)) return false;
+      int target = (Integer) o;
+      return target >= 0 && target < targets && isVisited(player, target);
+    }
+
+    @Override
+    public int size() {
+      return player_count[player];
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+      return visitedIterator(player);
+    }
+  }
+}
@@ -141,7 +141,6 @@ function draw_landmarks(min_x, min_y, max_x, max_y, num, xcoords, ycoords, num_o
         ctx.stroke();
         var gb =parseInt(255 - 255 * (maxnum - num_on_targets[i])/maxnum);
         var col="rgb(255," + gb +", " + gb + ")";
-        console.log(i + ": "+gb);
         ctx.fillStyle = col;
         ctx.fill();
     }
@@ -281,57 +280,95 @@ function draw_side(min_x, min_y, max_x, max_y, n, groups,  colors, scores, windx
 
 }
 
-function process(data)
-{
-    // parse data
-    data = data.split(",");
-    var cur = 0
-    var state = data[cur++];
-    var n = Number(data[cur++]);
-    var groups = new Array(n);
-    for(var i = 0 ; i < n ; ++ i) {
-        groups[i] = data[cur++];
-    }
+// the board as of the last frame, null until a keyframe came in
+var board = null;
 
-    var scores = new Array(n);
-    for(var i = 0 ; i < n ; ++ i) {
-        scores[i] = Number(data[cur++]);
-    }
-    var sorted_groups = new Array(n);
-    for(var i =0;i < n;++i) {
-        sorted_groups[i] = Number(data[cur++]);
-    }
-    var playerx = new Array(n);
-    var playery = new Array(n);
-    for(var i = 0 ; i < n ; ++ i) {
-        playerx[i] = Number(data[cur++]);
-        playery[i] = Number(data[cur++]);
+function decode_names(view, cur, n, names)
+{
+    var decoder = new TextDecoder("utf-8");
+    for (var i = 0 ; i < n ; ++i) {
+        var length = view.getUint16(cur, true);
+        cur += 2;
+        names[i] = decoder.decode(new Uint8Array(view.buffer, view.byteOffset + cur, length));
+        cur += length;
     }
+    return cur;
+}
 
-    var initplayerx = new Array(n);
-    var initplayery = new Array(n);
-    for(var i = 0 ; i < n ; ++ i) {
-        initplayerx[i] = Number(data[cur++]);
-        initplayery[i] = Number(data[cur++]);
-    }
-    var t = Number(data[cur++]);
-    var tx = new Array(t);
-    var ty = new Array(t);
-    for(var i = 0 ; i < t ; ++ i) {
-        tx[i] = Number(data[cur++]);
-        ty[i] = Number(data[cur++]);
-    }
-    var num_on_targets = new Array(t);
-    for(var i = 0; i < t; ++ i) {
-        num_on_targets[i] = Number(data[cur++]);
+// applies a frame written by FrameEncoder.java, false if it does not apply to the board
+function decode(view)
+{
+    var kind = view.getUint8(0);
+    var seq = view.getInt32(2, true);
+    var cur = 10;
+    if (kind == 0) {
+        var n = view.getUint16(cur, true);
+        var t = view.getInt32(cur + 2, true);
+        cur += 6;
+        board = {
+            n: n, t: t, groups: new Array(n),
+            scores: new Float64Array(n),
+            playerx: new Float32Array(n), playery: new Float32Array(n),
+            initplayerx: new Float32Array(n), initplayery: new Float32Array(n),
+            tx: new Float32Array(t), ty: new Float32Array(t),
+            num_on_targets: new Uint16Array(t)
+        };
+        cur = decode_names(view, cur, n, board.groups);
+        board.windx = view.getFloat64(cur, true);
+        board.windy = view.getFloat64(cur + 8, true);
+        cur += 16;
+        for (var i = 0 ; i < n ; ++i, cur += 8) {
+            board.initplayerx[i] = view.getFloat32(cur, true);
+            board.initplayery[i] = view.getFloat32(cur + 4, true);
+        }
+        for (var i = 0 ; i < t ; ++i, cur += 8) {
+            board.tx[i] = view.getFloat32(cur, true);
+            board.ty[i] = view.getFloat32(cur + 4, true);
+        }
+        for (var i = 0 ; i < n ; ++i, cur += 8)
+            board.scores[i] = view.getFloat64(cur, true);
+        for (var i = 0 ; i < n ; ++i, cur += 8) {
+            board.playerx[i] = view.getFloat32(cur, true);
+            board.playery[i] = view.getFloat32(cur + 4, true);
+        }
+        for (var i = 0 ; i < t ; ++i, cur += 2)
+            board.num_on_targets[i] = view.getUint16(cur, true);
+    } else {
+        if (board == null || view.getInt32(cur, true) != board.seq) {
+            board = null;
+            return false;
+        }
+        cur += 4;
+        var moved = view.getUint16(cur, true);
+        cur += 2;
+        for (var k = 0 ; k < moved ; ++k, cur += 10) {
+            var i = view.getUint16(cur, true);
+            board.playerx[i] = view.getFloat32(cur + 2, true);
+            board.playery[i] = view.getFloat32(cur + 6, true);
+        }
+        var scored = view.getUint16(cur, true);
+        cur += 2;
+        for (var k = 0 ; k < scored ; ++k, cur += 10)
+            board.scores[view.getUint16(cur, true)] = view.getFloat64(cur + 2, true);
+        var visited = view.getInt32(cur, true);
+        cur += 4;
+        for (var k = 0 ; k < visited ; ++k, cur += 6)
+            board.num_on_targets[view.getInt32(cur, true)] = view.getUint16(cur + 4, true);
     }
-    var windx = Number(data[cur++]);
-    var windy = Number(data[cur++]);
-    var refresh = Number(data[cur++]);
+    board.seq = seq;
+    board.ended = view.getUint8(1) == 1;
+    board.refresh = view.getInt32(6, true);
+    return true;
+}
 
-    console.log("data", data);
-    if (refresh < 0.0) refresh = -1;
-    else refresh = Math.round(refresh);
+function draw()
+{
+    var n = board.n;
+    // ranks, lowest score first, ties by group index
+    var sorted_groups = new Array(n);
+    for (var i = 0 ; i < n ; ++i)
+        sorted_groups[i] = i;
+    sorted_groups.sort(function(a, b) { return board.scores[a] - board.scores[b] || a - b; });
 
     // draw grid
     undraw();
@@ -343,57 +380,68 @@ function process(data)
     // draw for 1st player
     var colors = ["orange",  "purple", "green", "darkblue", "black", "lightseagreen", "darkgoldenrod"];
 
-    draw_landmarks(minx, miny, maxx, maxy, t, tx, ty, num_on_targets, n);
-    draw_dots(minx, miny, maxx, maxy, n, initplayerx, initplayery, 1, ["black"], true);
-    draw_boat(minx, miny, maxx, maxy, n, playerx, playery, 7, colors);
-    draw_side ( 10,  40,  190, 690, n, groups, colors, scores, windx, windy, sorted_groups);
-    //draw_outpost(250, 50, 850, 650 , n+2, n+2);
-    //draw_shape(250,  50,  850, 650, 50, 50, buildings, cuts, colors, types, highlight == 0);
-    return refresh;
+    draw_landmarks(minx, miny, maxx, maxy, board.t, board.tx, board.ty, board.num_on_targets, n);
+    draw_dots(minx, miny, maxx, maxy, n, board.initplayerx, board.initplayery, 1, ["black"], true);
+    draw_boat(minx, miny, maxx, maxy, n, board.playerx, board.playery, 7, colors);
+    draw_side ( 10,  40,  190, 690, n, board.groups, colors, board.scores, board.windx, board.windy, sorted_groups);
 }
 
-var latest_version = -1;
+// frames can come in much faster than the screen refreshes, only the last one is drawn
+var draw_pending = false;
 
-function ajax(version, retries, timeout)
+function schedule_draw()
 {
-    var xhr = new XMLHttpRequest();
-    xhr.onload = (function() {
-        var refresh = -1;
-        try {
-            if (xhr.readyState != 4)
-                throw "Incomplete HTTP request: " + xhr.readyState;
-            if (xhr.status != 200)
-                throw "Invalid HTTP status: " + xhr.status;
-            refresh = process(xhr.responseText);
-            if (latest_version < version && paused == 0)
-                latest_version = version;
-            else
-                refresh = -1;
-        } catch (message) { alert(message); }
-        if (refresh >= 0)
-            setTimeout(function() { ajax(version + 1, 10, 100); }, refresh);
+    if (draw_pending || paused == 1 || board == null) return;
+    draw_pending = true;
+    requestAnimationFrame(function() {
+        draw_pending = false;
+        if (board != null) draw();
     });
-    xhr.onabort   = (function() { location.reload(true); });
-    xhr.onerror   = (function() { location.reload(true); });
-    xhr.ontimeout = (function() {
-        if (version <= latest_version)
-            console.log("AJAX timeout (version " + version + " <= " + latest_version + ")");
-        else if (retries == 0)
-            location.reload(true);
-        else {
-            console.log("AJAX timeout (version " + version + ", retries: " + retries + ")");
-            ajax(version, retries - 1, timeout * 2);
+}
+
+// reads the frame stream, every frame is (uint32 length, frame) in little endian
+function stream()
+{
+    var pending = new Uint8Array(0);
+    fetch("frames", {cache: "no-store"}).then(function(response) {
+        if (!response.ok)
+            throw "Invalid HTTP status: " + response.status;
+        var reader = response.body.getReader();
+        function pump() {
+            return reader.read().then(function(result) {
+                if (result.done) return;
+                var joined = new Uint8Array(pending.length + result.value.length);
+                joined.set(pending);
+                joined.set(result.value, pending.length);
+                var view = new DataView(joined.buffer);
+                var cur = 0;
+                while (joined.length - cur >= 4) {
+                    var length = view.getUint32(cur, true);
+                    if (joined.length - cur - 4 < length) break;
+                    if (!decode(new DataView(joined.buffer, cur + 4, length))) {
+                        // lost track, a new stream starts with a keyframe
+                        reader.cancel();
+                        setTimeout(stream, 0);
+                        return;
+                    }
+                    cur += 4 + length;
+                }
+                pending = joined.slice(cur);
+                schedule_draw();
+                return pump();
+            });
         }
+        return pump();
+    }).catch(function(message) {
+        // most likely the game is over and the simulator gone
+        console.log("Frame stream error: " + message);
     });
-    xhr.open("GET", "data.txt", true);
-    xhr.responseType = "text";
-    xhr.timeout = timeout;
-    xhr.send();
 }
 
 function pause() {
     paused = (paused + 1) % 2;
+    schedule_draw();
 }
 
 var paused = 0;
-ajax(0, 10, 100);
+stream();
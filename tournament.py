@@ -40,52 +40,49 @@ for num_targets, time_step, time_limit, repetition in env_vars:
     not_best_score_rounds = []
     last_score_rounds = []
 
-    for run in tqdm(range(repetition)):
-        p = open("tmp.log", "w")
-        err = open("err.log", "w")
-        subprocess.run(["java", "sail.sim.Simulator",
-            "--tournament",
-            "--seed", str(seeds[run]),
-            "-t", str(num_targets),
-            "-dt", str(time_step),
-            "-tl", str(time_limit),
-            "-g", str(len(players))] + players, stdout = p, stderr = err)
-        p.close()
-        err.close()
+    # All the runs of this configuration share a single JVM.
+    err = open("err.log", "w")
+    runner = subprocess.Popen(["java", "sail.sim.TournamentRunner",
+        "--seeds", ",".join(str(s) for s in seeds),
+        "--config", "%d:%s:%d" % (num_targets, time_step, time_limit),
+        "-g", str(len(players))] + players,
+        stdout = subprocess.PIPE, stderr = err, universal_newlines = True)
+    header = runner.stdout.readline()
 
-        with open("tmp.log", "r") as log:
-            t = log.readlines()[-1]
-            parsed_log = [save_float(s) for s in t.split(', ')][:-1]
+    for line in tqdm(runner.stdout, total = repetition):
+        row = line.strip().split(',')
+        seed = int(row[0])
+        parsed_log = [save_float(s) for s in row[5:]]
 
-            our_final_score = None
-            round_final_scores = []
-            for i, player in enumerate(players):
-                player_base_index = (2*i) - len(players)*2
-                final_score = parsed_log[player_base_index]
-                time_remaining = parsed_log[player_base_index+1]
-                round_final_scores.append(final_score)
-                if player == 'g5':
-                    our_final_score = final_score
-                results[players[i]]['final_scores'].append(final_score)
-                results[players[i]]['time_remaining'].append(time_remaining)
+        our_final_score = None
+        round_final_scores = []
+        for i, player in enumerate(players):
+            final_score = parsed_log[2*i]
+            time_remaining = parsed_log[2*i+1]
+            round_final_scores.append(final_score)
+            if player == 'g5':
+                our_final_score = final_score
+            results[players[i]]['final_scores'].append(final_score)
+            results[players[i]]['time_remaining'].append(time_remaining)
 
-            # Use this checks to find runs where our strategy might not work.
-            if (our_final_score == min(round_final_scores)):
-                last_score_rounds.append(
-                    "Ours: %d, best: %d (--seed %d -t %d -dt %f -tl %d)" % (
-                        our_final_score, max(round_final_scores),
-                        seeds[run], num_targets, time_step, time_limit
-                    )
+        # Use this checks to find runs where our strategy might not work.
+        if (our_final_score == min(round_final_scores)):
+            last_score_rounds.append(
+                "Ours: %d, best: %d (--seed %d -t %d -dt %f -tl %d)" % (
+                    our_final_score, max(round_final_scores),
+                    seed, num_targets, time_step, time_limit
                 )
-            elif (our_final_score < max(round_final_scores)):
-                not_best_score_rounds.append(
-                    "Ours: %d, best: %d (--seed %d -t %d -dt %f -tl %d)" % (
-                        our_final_score, max(round_final_scores),
-                        seeds[run], num_targets, time_step, time_limit
-                    )
+            )
+        elif (our_final_score < max(round_final_scores)):
+            not_best_score_rounds.append(
+                "Ours: %d, best: %d (--seed %d -t %d -dt %f -tl %d)" % (
+                    our_final_score, max(round_final_scores),
+                    seed, num_targets, time_step, time_limit
                 )
+            )
 
-            log.close()
+    runner.wait()
+    err.close()
 
     print()
     for player, scores in results.items():